@@ -0,0 +1,196 @@
+package com.lian.pinheader.widget.pinheader;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 比较新旧两份group/child数据，可以在后台线程调用。
+ * group按key配对，同一个group的child按顺序逐个比较。
+ * 没有group增删、移动、child数量或者顺序变化的时候是"非结构性"的变化，
+ * 列表只需要重新绑定变了的行，不用notifyDataSetChanged。
+ * 不依赖Android的类。
+ */
+public final class ExpandableDiff {
+
+	public interface Callback<G, C> {
+		/**
+		 * 用来判断新旧数据里是不是同一个group，要实现equals和hashCode
+		 */
+		public Object getGroupKey(G group);
+
+		public boolean areGroupContentsTheSame(G oldGroup, G newGroup);
+
+		/**
+		 * 用来判断是不是同一个child
+		 */
+		public Object getChildKey(C child);
+
+		public boolean areChildContentsTheSame(C oldChild, C newChild);
+	}
+
+	/**
+	 * 比较的结果，位置都是新数据里的位置，除了{@link #getNewGroupPosition}的参数
+	 */
+	public static final class Result {
+		private final int[] mOldToNew;
+		private final BitSet mChangedGroups = new BitSet();
+		private final BitSet mAffectedGroups = new BitSet();
+		private final HashMap<Integer, BitSet> mChangedChildren = new HashMap<Integer, BitSet>();
+		private boolean isStructural;
+		private int mInsertedCount;
+		private int mRemovedCount;
+		private int mMovedCount;
+		private int mChangedChildCount;
+
+		Result(int oldGroupCount) {
+			mOldToNew = new int[oldGroupCount];
+		}
+
+		/**
+		 * 有group增删、移动，或者某个group的child数量、顺序变了
+		 */
+		public boolean isStructural() {
+			return isStructural;
+		}
+
+		/**
+		 * 旧的group在新数据里的位置，被删掉了返回-1
+		 */
+		public int getNewGroupPosition(int oldGroupPosition) {
+			if (oldGroupPosition < 0 || oldGroupPosition >= mOldToNew.length) {
+				return -1;
+			}
+			return mOldToNew[oldGroupPosition];
+		}
+
+		/**
+		 * group行本身的内容变了
+		 */
+		public boolean isGroupChanged(int groupPosition) {
+			return groupPosition >= 0 && mChangedGroups.get(groupPosition);
+		}
+
+		public boolean isChildChanged(int groupPosition, int childPosition) {
+			BitSet children = mChangedChildren.get(groupPosition);
+			return children != null && children.get(childPosition);
+		}
+
+		/**
+		 * group或者它的child有任何变化
+		 */
+		public boolean isGroupAffected(int groupPosition) {
+			return groupPosition >= 0 && mAffectedGroups.get(groupPosition);
+		}
+
+		public boolean hasChanges() {
+			return isStructural || !mAffectedGroups.isEmpty();
+		}
+
+		public int getInsertedCount() {
+			return mInsertedCount;
+		}
+
+		public int getRemovedCount() {
+			return mRemovedCount;
+		}
+
+		public int getMovedCount() {
+			return mMovedCount;
+		}
+
+		public int getChangedGroupCount() {
+			return mChangedGroups.cardinality();
+		}
+
+		public int getChangedChildCount() {
+			return mChangedChildCount;
+		}
+	}
+
+	private ExpandableDiff() {
+	}
+
+	public static <G, C> Result compute(List<G> oldGroups, List<? extends List<C>> oldChildren,
+			List<G> newGroups, List<? extends List<C>> newChildren, Callback<G, C> callback) {
+		final int oldCount = oldGroups.size();
+		final int newCount = newGroups.size();
+		final Result result = new Result(oldCount);
+
+		HashMap<Object, Integer> newPositions = new HashMap<Object, Integer>(newCount * 2);
+		for (int j = 0; j < newCount; j++) {
+			newPositions.put(callback.getGroupKey(newGroups.get(j)), j);
+		}
+
+		final BitSet matched = new BitSet(newCount);
+		int lastNew = -1;
+		for (int i = 0; i < oldCount; i++) {
+			final G oldGroup = oldGroups.get(i);
+			final Integer found = newPositions.get(callback.getGroupKey(oldGroup));
+			if (found == null || matched.get(found)) {
+				result.mOldToNew[i] = -1;
+				result.mRemovedCount++;
+				result.isStructural = true;
+				continue;
+			}
+			final int j = found;
+			matched.set(j);
+			result.mOldToNew[i] = j;
+			if (j != i) {
+				result.isStructural = true;
+			}
+			if (j < lastNew) {
+				result.mMovedCount++;
+			} else {
+				lastNew = j;
+			}
+
+			final G newGroup = newGroups.get(j);
+			if (!callback.areGroupContentsTheSame(oldGroup, newGroup)) {
+				result.mChangedGroups.set(j);
+				result.mAffectedGroups.set(j);
+			}
+			diffChildren(oldChildren.get(i), newChildren.get(j), j, callback, result);
+		}
+
+		result.mInsertedCount = newCount - matched.cardinality();
+		if (result.mInsertedCount > 0) {
+			result.isStructural = true;
+		}
+		return result;
+	}
+
+	private static <G, C> void diffChildren(List<C> oldList, List<C> newList, int group,
+			Callback<G, C> callback, Result result) {
+		final int count = oldList != null ? oldList.size() : 0;
+		if (count != (newList != null ? newList.size() : 0)) {
+			result.isStructural = true;
+			result.mAffectedGroups.set(group);
+			return;
+		}
+		BitSet changed = null;
+		for (int c = 0; c < count; c++) {
+			final C oldChild = oldList.get(c);
+			final C newChild = newList.get(c);
+			final Object oldKey = callback.getChildKey(oldChild);
+			if (oldKey == null ? callback.getChildKey(newChild) != null
+					: !oldKey.equals(callback.getChildKey(newChild))) {
+				// child的顺序或者身份变了
+				result.isStructural = true;
+				result.mAffectedGroups.set(group);
+				return;
+			}
+			if (!callback.areChildContentsTheSame(oldChild, newChild)) {
+				if (changed == null) {
+					changed = new BitSet(count);
+				}
+				changed.set(c);
+			}
+		}
+		if (changed != null) {
+			result.mChangedChildren.put(group, changed);
+			result.mChangedChildCount += changed.cardinality();
+			result.mAffectedGroups.set(group);
+		}
+	}
+}
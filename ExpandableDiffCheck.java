@@ -0,0 +1,171 @@
+package com.lian.pinheader.widget.pinheader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ExpandableDiff的检查，不依赖Android，直接在JVM上跑。
+ * 覆盖没有变化、只有内容变化、group增删和移动、child数量和顺序变化、重复的key，
+ * 结果不对抛IllegalStateException。
+ *
+ * <pre>
+ * javac -d out ExpandableDiff.java ExpandableDiffCheck.java
+ * java -cp out com.lian.pinheader.widget.pinheader.ExpandableDiffCheck
+ * </pre>
+ */
+final class ExpandableDiffCheck {
+
+	/**
+	 * 数据写成"key:内容"，冒号前面是身份，整个字符串相同才算内容相同
+	 */
+	private static final ExpandableDiff.Callback<String, String> CALLBACK =
+			new ExpandableDiff.Callback<String, String>() {
+		@Override
+		public Object getGroupKey(String group) {
+			return keyOf(group);
+		}
+
+		@Override
+		public boolean areGroupContentsTheSame(String oldGroup, String newGroup) {
+			return oldGroup.equals(newGroup);
+		}
+
+		@Override
+		public Object getChildKey(String child) {
+			return keyOf(child);
+		}
+
+		@Override
+		public boolean areChildContentsTheSame(String oldChild, String newChild) {
+			return oldChild.equals(newChild);
+		}
+	};
+
+	public static void main(String[] args) {
+		checkUnchanged();
+		checkContentOnly();
+		checkInsertAndRemove();
+		checkMove();
+		checkChildStructure();
+		checkDuplicateKeys();
+		System.out.println("ExpandableDiff: all checks passed");
+	}
+
+	private static void checkUnchanged() {
+		final ExpandableDiff.Result result = diff(
+				groups("a:1", "b:1"), children(list("a1:1"), list()),
+				groups("a:1", "b:1"), children(list("a1:1"), list()));
+		check(!result.hasChanges(), "identical data has changes");
+		check(!result.isStructural(), "identical data is structural");
+		check(result.getNewGroupPosition(1) == 1, "unchanged group moved");
+	}
+
+	private static void checkContentOnly() {
+		final ExpandableDiff.Result result = diff(
+				groups("a:1", "b:1", "c:1"),
+				children(list("a1:1", "a2:1"), list("b1:1"), list("c1:1", "c2:1")),
+				groups("a:1", "b:2", "c:1"),
+				children(list("a1:1", "a2:1"), list("b1:1"), list("c1:1", "c2:2")));
+		check(result.hasChanges(), "content change not found");
+		check(!result.isStructural(), "content change is structural");
+		check(result.isGroupChanged(1) && !result.isGroupChanged(0)
+				&& !result.isGroupChanged(2), "changed groups");
+		check(result.isChildChanged(2, 1) && !result.isChildChanged(2, 0)
+				&& !result.isChildChanged(1, 0), "changed children");
+		check(!result.isGroupAffected(0) && result.isGroupAffected(1)
+				&& result.isGroupAffected(2), "affected groups");
+		check(result.getChangedGroupCount() == 1, "changed group count");
+		check(result.getChangedChildCount() == 1, "changed child count");
+		check(!result.isGroupAffected(-1) && !result.isGroupChanged(-1), "negative position");
+	}
+
+	private static void checkInsertAndRemove() {
+		final ExpandableDiff.Result result = diff(
+				groups("a:1", "b:1", "c:1"), children(list(), list(), list()),
+				groups("a:1", "x:1", "c:1", "y:1"), children(list(), list(), list(), list()));
+		check(result.isStructural(), "insert and remove not structural");
+		check(result.getInsertedCount() == 2, "inserted " + result.getInsertedCount());
+		check(result.getRemovedCount() == 1, "removed " + result.getRemovedCount());
+		check(result.getMovedCount() == 0, "moved " + result.getMovedCount());
+		check(result.getNewGroupPosition(0) == 0, "a moved");
+		check(result.getNewGroupPosition(1) == -1, "b not removed");
+		check(result.getNewGroupPosition(2) == 2, "c not at 2");
+		check(result.getNewGroupPosition(3) == -1, "position past the old groups");
+	}
+
+	private static void checkMove() {
+		// a、b的相对顺序没变，只有c算移动
+		final ExpandableDiff.Result result = diff(
+				groups("a:1", "b:1", "c:1"), children(list(), list(), list()),
+				groups("c:1", "a:1", "b:1"), children(list(), list(), list()));
+		check(result.isStructural(), "move not structural");
+		check(result.getMovedCount() == 1, "moved " + result.getMovedCount());
+		check(result.getNewGroupPosition(0) == 1 && result.getNewGroupPosition(2) == 0,
+				"moved positions");
+		check(result.getInsertedCount() == 0 && result.getRemovedCount() == 0,
+				"move counted as insert or remove");
+		check(!result.isGroupAffected(0), "moved group reported as changed");
+	}
+
+	private static void checkChildStructure() {
+		ExpandableDiff.Result result = diff(
+				groups("a:1", "b:1"), children(list("a1:1"), list("b1:1", "b2:1")),
+				groups("a:1", "b:1"), children(list("a1:1", "a2:1"), list("b1:1", "b2:1")));
+		check(result.isStructural(), "child insert not structural");
+		check(result.isGroupAffected(0) && !result.isGroupAffected(1),
+				"child insert affected groups");
+
+		result = diff(
+				groups("a:1"), children(list("a1:1", "a2:1")),
+				groups("a:1"), children(list("a2:1", "a1:1")));
+		check(result.isStructural(), "child reorder not structural");
+		check(result.isGroupAffected(0), "child reorder not affected");
+
+		// null当作没有child
+		result = diff(
+				groups("a:1"), children((List<String>) null),
+				groups("a:1"), children(list()));
+		check(!result.hasChanges(), "null children differ from empty");
+	}
+
+	private static void checkDuplicateKeys() {
+		// 旧数据里重复的key只有第一个能配上，后面的算删除
+		final ExpandableDiff.Result result = diff(
+				groups("a:1", "a:2"), children(list(), list()),
+				groups("a:1"), children(list()));
+		check(result.isStructural(), "duplicate key not structural");
+		check(result.getNewGroupPosition(0) == 0, "first duplicate not matched");
+		check(result.getNewGroupPosition(1) == -1, "second duplicate matched");
+		check(result.getRemovedCount() == 1, "removed " + result.getRemovedCount());
+	}
+
+	private static ExpandableDiff.Result diff(List<String> oldGroups,
+			List<List<String>> oldChildren, List<String> newGroups,
+			List<List<String>> newChildren) {
+		return ExpandableDiff.compute(oldGroups, oldChildren, newGroups, newChildren, CALLBACK);
+	}
+
+	private static Object keyOf(String item) {
+		return item.substring(0, item.indexOf(':'));
+	}
+
+	private static List<String> groups(String... groups) {
+		return Arrays.asList(groups);
+	}
+
+	private static List<String> list(String... children) {
+		return Arrays.asList(children);
+	}
+
+	@SafeVarargs
+	private static List<List<String>> children(List<String>... children) {
+		return new ArrayList<List<String>>(Arrays.asList(children));
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.lian.pinheader.widget.pinheader;
+
+/**
+ * 扁平位置 -> group 的索引，用 Fenwick 树(树状数组)维护每个 group 占用的行数，
+ * 即 1(group 行) + 展开时的 child 数。
+ * 查询、单个 group 的更新都是 O(log n)，整体重建是 O(n)。
+ * 这里的扁平位置不含 ListView 的 headerView。
+ */
+final class GroupPositionIndex {
+
+	/** 1-based 的树状数组 */
+	private int[] mTree = new int[1];
+	private int[] mSizes = new int[0];
+	private int mCount;
+	/** 不超过 mCount 的最大 2 的幂，查找时用 */
+	private int mTopStep;
+
+	/**
+	 * 用每个 group 的行数整体重建
+	 */
+	void rebuild(int[] sizes, int count) {
+		if (mSizes.length < count) {
+			mSizes = new int[count];
+			mTree = new int[count + 1];
+		}
+		mCount = count;
+		System.arraycopy(sizes, 0, mSizes, 0, count);
+		final int[] tree = mTree;
+		for (int i = 1; i <= count; i++) {
+			tree[i] = sizes[i - 1];
+		}
+		for (int i = 1; i <= count; i++) {
+			int parent = i + (i & -i);
+			if (parent <= count) {
+				tree[parent] += tree[i];
+			}
+		}
+		mTopStep = count == 0 ? 0 : Integer.highestOneBit(count);
+	}
+
+	int getGroupCount() {
+		return mCount;
+	}
+
+	int getGroupSize(int group) {
+		return mSizes[group];
+	}
+
+	/**
+	 * 修改某个 group 占用的行数，比如展开、收起的时候
+	 */
+	void setGroupSize(int group, int size) {
+		int delta = size - mSizes[group];
+		if (delta == 0) {
+			return;
+		}
+		mSizes[group] = size;
+		final int[] tree = mTree;
+		for (int i = group + 1; i <= mCount; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * group 行所在的扁平位置，即它前面所有 group 的行数之和
+	 */
+	int getFlatPosition(int group) {
+		int sum = 0;
+		final int[] tree = mTree;
+		for (int i = group; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * 扁平位置所在的 group，超出范围返回 -1
+	 */
+	int getGroup(int flatPos) {
+		if (flatPos < 0) {
+			return -1;
+		}
+		final int[] tree = mTree;
+		int pos = 0;
+		int remaining = flatPos;
+		for (int step = mTopStep; step > 0; step >>= 1) {
+			int next = pos + step;
+			if (next <= mCount && tree[next] <= remaining) {
+				pos = next;
+				remaining -= tree[next];
+			}
+		}
+		return pos < mCount ? pos : -1;
+	}
+
+	/**
+	 * 所有 group 的总行数
+	 */
+	int getTotal() {
+		return getFlatPosition(mCount);
+	}
+}
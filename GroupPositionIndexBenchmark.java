@@ -0,0 +1,197 @@
+package com.lian.pinheader.widget.pinheader;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * GroupPositionIndex的基准测试，不依赖Android，直接在JVM上跑。
+ * 10万个group，大约一半展开，每个group 0到30个child，
+ * 测整体重建、扁平位置查group、group查扁平位置、展开收起单个group的耗时，
+ * 和逐个group累加行数的线性查找对比。
+ * 测之前先和一个直接算前缀和的参考实现对拍，结果不一致抛IllegalStateException。
+ *
+ * <pre>
+ * javac -d out GroupPositionIndex.java GroupPositionIndexBenchmark.java
+ * java -cp out com.lian.pinheader.widget.pinheader.GroupPositionIndexBenchmark
+ * </pre>
+ */
+final class GroupPositionIndexBenchmark {
+
+	private static final int GROUPS = 100000;
+	private static final int MAX_CHILDREN = 30;
+	private static final int QUERIES = 1000000;
+	/** 线性查找太慢，只查这么多次 */
+	private static final int LINEAR_QUERIES = 2000;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 20;
+
+	private final Random mRandom = new Random(42);
+	private final int[] mChildren = new int[GROUPS];
+	private final int[] mSizes = new int[GROUPS];
+	private final GroupPositionIndex mIndex = new GroupPositionIndex();
+	/** 防止JIT把查询优化掉 */
+	private long mSink;
+
+	private GroupPositionIndexBenchmark() {
+		for (int i = 0; i < GROUPS; i++) {
+			mChildren[i] = mRandom.nextInt(MAX_CHILDREN + 1);
+			mSizes[i] = mRandom.nextBoolean() ? 1 + mChildren[i] : 1;
+		}
+	}
+
+	public static void main(String[] args) {
+		final GroupPositionIndexBenchmark benchmark = new GroupPositionIndexBenchmark();
+		benchmark.checkAgainstReference();
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			benchmark.runRound();
+		}
+		final long[][] rounds = new long[ROUNDS][];
+		for (int i = 0; i < ROUNDS; i++) {
+			rounds[i] = benchmark.runRound();
+		}
+
+		System.out.println("GroupPositionIndex: " + GROUPS + " groups, "
+				+ benchmark.mIndex.getTotal() + " rows, " + ROUNDS + " rounds (median)");
+		System.out.printf("rebuild:          %,12d ns%n", median(rounds, 0));
+		System.out.printf("getGroup:         %,12.1f ns/op%n", median(rounds, 1) / (double) QUERIES);
+		System.out.printf("getFlatPosition:  %,12.1f ns/op%n", median(rounds, 2) / (double) QUERIES);
+		System.out.printf("setGroupSize:     %,12.1f ns/op%n", median(rounds, 3) / (double) QUERIES);
+		System.out.printf("linear getGroup:  %,12.1f ns/op%n",
+				median(rounds, 4) / (double) LINEAR_QUERIES);
+		System.out.println("(sink " + benchmark.mSink + ")");
+	}
+
+	/**
+	 * 跑一轮，返回各项的总耗时：重建、getGroup、getFlatPosition、setGroupSize、线性查找
+	 */
+	private long[] runRound() {
+		final GroupPositionIndex index = mIndex;
+		final long[] nanos = new long[5];
+
+		long start = System.nanoTime();
+		index.rebuild(mSizes, GROUPS);
+		nanos[0] = System.nanoTime() - start;
+
+		final int total = index.getTotal();
+		final int[] positions = new int[QUERIES];
+		final int[] groups = new int[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			positions[i] = mRandom.nextInt(total);
+			groups[i] = mRandom.nextInt(GROUPS);
+		}
+
+		long sink = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < QUERIES; i++) {
+			sink += index.getGroup(positions[i]);
+		}
+		nanos[1] = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < QUERIES; i++) {
+			sink += index.getFlatPosition(groups[i]);
+		}
+		nanos[2] = System.nanoTime() - start;
+
+		// 展开、收起随机的group，每个group改两次，最后回到原样
+		start = System.nanoTime();
+		for (int i = 0; i < QUERIES; i++) {
+			final int group = groups[i];
+			index.setGroupSize(group, index.getGroupSize(group) == 1 ? 1 + mChildren[group] : 1);
+		}
+		for (int i = QUERIES - 1; i >= 0; i--) {
+			final int group = groups[i];
+			index.setGroupSize(group, index.getGroupSize(group) == 1 ? 1 + mChildren[group] : 1);
+		}
+		nanos[3] = (System.nanoTime() - start) / 2;
+
+		start = System.nanoTime();
+		for (int i = 0; i < LINEAR_QUERIES; i++) {
+			sink += linearGetGroup(mSizes, GROUPS, positions[i]);
+		}
+		nanos[4] = System.nanoTime() - start;
+
+		mSink += sink;
+		return nanos;
+	}
+
+	/**
+	 * 用前缀和数组当参考，检查重建以后和随机展开收起以后的查询结果
+	 */
+	private void checkAgainstReference() {
+		final GroupPositionIndex index = mIndex;
+		final int[] sizes = mSizes.clone();
+		index.rebuild(sizes, GROUPS);
+		verify(index, sizes, GROUPS);
+
+		for (int i = 1; i <= 5000; i++) {
+			final int group = mRandom.nextInt(GROUPS);
+			sizes[group] = sizes[group] == 1 ? 1 + mChildren[group] : 1;
+			index.setGroupSize(group, sizes[group]);
+			if (i % 500 == 0) {
+				verify(index, sizes, GROUPS);
+			}
+		}
+
+		// 数组比group数大、group数不是2的幂、空索引
+		index.rebuild(sizes, 1000);
+		verify(index, sizes, 1000);
+		index.rebuild(sizes, 0);
+		check(index.getTotal() == 0 && index.getGroup(0) == -1, "empty index");
+	}
+
+	private void verify(GroupPositionIndex index, int[] sizes, int count) {
+		final int[] prefix = new int[count + 1];
+		for (int g = 0; g < count; g++) {
+			prefix[g + 1] = prefix[g] + sizes[g];
+		}
+		check(index.getGroupCount() == count, "group count " + index.getGroupCount());
+		check(index.getTotal() == prefix[count], "total " + index.getTotal());
+		for (int g = 0; g <= count; g++) {
+			check(index.getFlatPosition(g) == prefix[g], "flat position of group " + g);
+		}
+		for (int g = 0; g < count; g++) {
+			// group行和它的最后一行
+			check(index.getGroup(prefix[g]) == g, "group at " + prefix[g]);
+			check(index.getGroup(prefix[g + 1] - 1) == g, "group at " + (prefix[g + 1] - 1));
+		}
+		for (int i = 0; i < 10000; i++) {
+			final int pos = mRandom.nextInt(prefix[count]);
+			int g = Arrays.binarySearch(prefix, pos);
+			g = g >= 0 ? g : -g - 2;
+			check(index.getGroup(pos) == g, "group at " + pos);
+		}
+		check(index.getGroup(-1) == -1, "group at -1");
+		check(index.getGroup(prefix[count]) == -1, "group past the end");
+	}
+
+	/**
+	 * 不用索引时的做法：从第一个group开始累加行数
+	 */
+	private static int linearGetGroup(int[] sizes, int count, int flatPos) {
+		int end = 0;
+		for (int g = 0; g < count; g++) {
+			end += sizes[g];
+			if (flatPos < end) {
+				return g;
+			}
+		}
+		return -1;
+	}
+
+	private static long median(long[][] rounds, int column) {
+		final long[] values = new long[rounds.length];
+		for (int i = 0; i < rounds.length; i++) {
+			values[i] = rounds[i][column];
+		}
+		Arrays.sort(values);
+		return values[values.length / 2];
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.lian.pinheader.widget.pinheader;
+
+import android.widget.SectionIndexer;
+
+import java.util.ArrayList;
+
+/**
+ * group的分段索引，比如按首字母或者每N个group分一段。
+ * 这里的位置都是group的位置，不是扁平位置；配合
+ * {@link PinnedHeaderExpandableListView#scrollToSection}使用。
+ * 找位置对应的分段是二分查找，O(log n)。
+ */
+public class GroupSectionIndexer implements SectionIndexer {
+
+	public interface GroupLabeler {
+		/**
+		 * group的标题，按首字母分段时用
+		 */
+		public CharSequence getGroupLabel(int groupPosition);
+	}
+
+	private final Object[] mSections;
+	/**
+	 * 每个分段第一个group的位置，升序
+	 */
+	private final int[] mStarts;
+	private final int mGroupCount;
+
+	/**
+	 * @param starts 每个分段第一个group的位置，必须升序并且第一个是0
+	 */
+	public GroupSectionIndexer(Object[] sections, int[] starts, int groupCount) {
+		if (sections.length != starts.length) {
+			throw new IllegalArgumentException("sections and starts differ in length");
+		}
+		for (int i = 0; i < starts.length; i++) {
+			if ((i == 0 && starts[i] != 0) || (i > 0 && starts[i] <= starts[i - 1])
+					|| starts[i] >= groupCount) {
+				throw new IllegalArgumentException("Invalid section start " + starts[i]);
+			}
+		}
+		mSections = sections;
+		mStarts = starts;
+		mGroupCount = groupCount;
+	}
+
+	/**
+	 * 按group标题的首字母分段，group要已经按标题排好序，不是字母的都归到"#"
+	 */
+	public static GroupSectionIndexer byLetter(int groupCount, GroupLabeler labeler) {
+		ArrayList<String> sections = new ArrayList<String>();
+		int[] starts = new int[Math.min(groupCount, 64)];
+		int sectionCount = 0;
+		String last = null;
+		for (int i = 0; i < groupCount; i++) {
+			String letter = getLetter(labeler.getGroupLabel(i));
+			if (!letter.equals(last)) {
+				if (sectionCount == starts.length) {
+					int[] grown = new int[sectionCount * 2];
+					System.arraycopy(starts, 0, grown, 0, sectionCount);
+					starts = grown;
+				}
+				starts[sectionCount++] = i;
+				sections.add(letter);
+				last = letter;
+			}
+		}
+		int[] trimmed = new int[sectionCount];
+		System.arraycopy(starts, 0, trimmed, 0, sectionCount);
+		return new GroupSectionIndexer(sections.toArray(), trimmed, groupCount);
+	}
+
+	/**
+	 * 每bucketSize个group分一段，分段的名字是第一个group的序号，从1开始
+	 */
+	public static GroupSectionIndexer byBucket(int groupCount, int bucketSize) {
+		if (bucketSize <= 0) {
+			throw new IllegalArgumentException("bucketSize must be positive");
+		}
+		final int sectionCount = (groupCount + bucketSize - 1) / bucketSize;
+		Object[] sections = new Object[sectionCount];
+		int[] starts = new int[sectionCount];
+		for (int i = 0; i < sectionCount; i++) {
+			starts[i] = i * bucketSize;
+			sections[i] = String.valueOf(starts[i] + 1);
+		}
+		return new GroupSectionIndexer(sections, starts, groupCount);
+	}
+
+	private static String getLetter(CharSequence label) {
+		if (label == null || label.length() == 0) {
+			return "#";
+		}
+		char c = Character.toUpperCase(label.charAt(0));
+		return Character.isLetter(c) ? String.valueOf(c) : "#";
+	}
+
+	public int getGroupCount() {
+		return mGroupCount;
+	}
+
+	@Override
+	public Object[] getSections() {
+		return mSections;
+	}
+
+	/**
+	 * 分段第一个group的位置
+	 */
+	@Override
+	public int getPositionForSection(int section) {
+		if (mStarts.length == 0) {
+			return 0;
+		}
+		if (section < 0) {
+			section = 0;
+		} else if (section >= mStarts.length) {
+			section = mStarts.length - 1;
+		}
+		return mStarts[section];
+	}
+
+	/**
+	 * group所在的分段
+	 */
+	@Override
+	public int getSectionForPosition(int groupPosition) {
+		int lo = 0;
+		int hi = mStarts.length - 1;
+		int found = 0;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (mStarts[mid] <= groupPosition) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+}
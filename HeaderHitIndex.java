@@ -0,0 +1,100 @@
+package com.lian.pinheader.widget.pinheader;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * 悬停header里可点击控件的位置缓存，坐标相对于header本身。
+ * header重新layout或者重新绑定后标记为脏，下次点击时才重建，
+ * 其余时候点击只是查一遍数组，不用再遍历整个控件树。
+ */
+final class HeaderHitIndex {
+
+	private View mRoot;
+	private View[] mViews = new View[8];
+	/** 每个控件占4个int：left, top, right, bottom */
+	private int[] mRects = new int[32];
+	private int mCount;
+	private boolean isDirty = true;
+
+	void invalidate() {
+		isDirty = true;
+	}
+
+	void clear() {
+		for (int i = 0; i < mCount; i++) {
+			mViews[i] = null;
+		}
+		mCount = 0;
+		mRoot = null;
+		isDirty = true;
+	}
+
+	/**
+	 * 找到(x, y)下面最上层、最深的可点击控件，没有就返回root本身
+	 */
+	View findTarget(View root, int x, int y) {
+		if (root != mRoot || isDirty) {
+			rebuild(root);
+		}
+		final int[] rects = mRects;
+		// 先序收集的，倒着找就是后画的兄弟在前、子控件在父控件前
+		for (int i = mCount - 1; i >= 0; i--) {
+			final int j = i << 2;
+			if (x >= rects[j] && x <= rects[j + 2] && y >= rects[j + 1] && y <= rects[j + 3]) {
+				final View view = mViews[i];
+				if (view.isClickable() && view.getVisibility() == View.VISIBLE) {
+					return view;
+				}
+			}
+		}
+		return root;
+	}
+
+	private void rebuild(View root) {
+		clear();
+		mRoot = root;
+		isDirty = false;
+		if (root instanceof ViewGroup) {
+			collect((ViewGroup) root, 0, 0);
+		}
+	}
+
+	private void collect(ViewGroup parent, int offsetX, int offsetY) {
+		offsetX -= parent.getScrollX();
+		offsetY -= parent.getScrollY();
+		final int childCount = parent.getChildCount();
+		for (int i = 0; i < childCount; i++) {
+			final View child = parent.getChildAt(i);
+			if (child.getVisibility() != View.VISIBLE) {
+				continue;
+			}
+			final int left = offsetX + child.getLeft();
+			final int top = offsetY + child.getTop();
+			if (child.isClickable()) {
+				add(child, left, top, left + child.getWidth(), top + child.getHeight());
+			}
+			if (child instanceof ViewGroup) {
+				collect((ViewGroup) child, left, top);
+			}
+		}
+	}
+
+	private void add(View view, int left, int top, int right, int bottom) {
+		if (mCount == mViews.length) {
+			View[] views = new View[mCount * 2];
+			System.arraycopy(mViews, 0, views, 0, mCount);
+			mViews = views;
+			int[] rects = new int[mCount * 8];
+			System.arraycopy(mRects, 0, rects, 0, mCount * 4);
+			mRects = rects;
+		}
+		final int j = mCount << 2;
+		mViews[mCount] = view;
+		mRects[j] = left;
+		mRects[j + 1] = top;
+		mRects[j + 2] = right;
+		mRects[j + 3] = bottom;
+		mCount++;
+	}
+}
@@ -0,0 +1,228 @@
+package com.lian.pinheader.widget.pinheader;
+
+import java.util.Arrays;
+
+/**
+ * 统计悬停header在每一帧里花的时间，按阶段分别记录到直方图里，
+ * 并统计超出一帧预算的次数。交给
+ * {@link PinnedHeaderExpandableListView#setJankStats}后开始统计，
+ * 用{@link #snapshot()}取一份拷贝给诊断页面或者单元测试看。
+ * 不依赖Android的类，可以直接在JVM上用。
+ */
+public final class HeaderJankStats {
+
+	/** onScroll里header相关的全部工作 */
+	public static final int PHASE_SCROLL = 0;
+	/** refreshHeader */
+	public static final int PHASE_REFRESH = 1;
+	/** 回调updatePinnedHeader、updatePinnedSubHeader */
+	public static final int PHASE_BIND = 2;
+	/** measure header */
+	public static final int PHASE_MEASURE = 3;
+	/** dispatchDraw里画header */
+	public static final int PHASE_DRAW = 4;
+	public static final int PHASE_COUNT = 5;
+
+	private static final String[] PHASE_NAMES = {
+			"scroll", "refresh", "bind", "measure", "draw"
+	};
+
+	/**
+	 * 直方图的桶数，按微秒取2的幂分桶：第0个桶是0，第i个桶是[2^(i-1), 2^i)
+	 */
+	public static final int BUCKET_COUNT = 32;
+
+	/** 60fps一帧的时间 */
+	public static final long DEFAULT_FRAME_BUDGET_NANOS = 16666667L;
+
+	private final long mFrameBudgetNanos;
+
+	private final long[] mCounts = new long[PHASE_COUNT];
+	private final long[] mTotalNanos = new long[PHASE_COUNT];
+	private final long[] mMaxNanos = new long[PHASE_COUNT];
+	private final long[] mOverruns = new long[PHASE_COUNT];
+	private final long[][] mBuckets = new long[PHASE_COUNT][BUCKET_COUNT];
+
+	/** 嵌套的阶段只把最外层的时间算进这一帧 */
+	private int mDepth;
+	private long mFrameNanos;
+	private long mFrames;
+	private long mFrameOverruns;
+
+	public HeaderJankStats() {
+		this(DEFAULT_FRAME_BUDGET_NANOS);
+	}
+
+	public HeaderJankStats(long frameBudgetNanos) {
+		if (frameBudgetNanos <= 0) {
+			throw new IllegalArgumentException("frameBudgetNanos must be positive");
+		}
+		mFrameBudgetNanos = frameBudgetNanos;
+	}
+
+	public long getFrameBudgetNanos() {
+		return mFrameBudgetNanos;
+	}
+
+	/**
+	 * 开始一个阶段，返回开始时间，交给{@link #end}
+	 */
+	public synchronized long begin() {
+		mDepth++;
+		return System.nanoTime();
+	}
+
+	public synchronized void end(int phase, long startNanos) {
+		final long nanos = System.nanoTime() - startNanos;
+		mDepth--;
+		record(phase, nanos);
+		if (mDepth == 0) {
+			mFrameNanos += nanos;
+		}
+	}
+
+	/**
+	 * 记录一个阶段的耗时，不计入当前帧
+	 */
+	public synchronized void record(int phase, long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		mCounts[phase]++;
+		mTotalNanos[phase] += nanos;
+		if (nanos > mMaxNanos[phase]) {
+			mMaxNanos[phase] = nanos;
+		}
+		if (nanos > mFrameBudgetNanos) {
+			mOverruns[phase]++;
+		}
+		mBuckets[phase][bucketFor(nanos / 1000)]++;
+	}
+
+	/**
+	 * 一帧画完时调用，header在这一帧里一共花的时间超过预算就算一次超时
+	 */
+	public synchronized void endFrame() {
+		mFrames++;
+		if (mFrameNanos > mFrameBudgetNanos) {
+			mFrameOverruns++;
+		}
+		mFrameNanos = 0;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < PHASE_COUNT; i++) {
+			mCounts[i] = 0;
+			mTotalNanos[i] = 0;
+			mMaxNanos[i] = 0;
+			mOverruns[i] = 0;
+			Arrays.fill(mBuckets[i], 0);
+		}
+		mFrameNanos = 0;
+		mFrames = 0;
+		mFrameOverruns = 0;
+	}
+
+	public synchronized Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	static int bucketFor(long micros) {
+		return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+	}
+
+	public static String getPhaseName(int phase) {
+		return PHASE_NAMES[phase];
+	}
+
+	/**
+	 * 某一时刻统计数据的拷贝，之后不会再变
+	 */
+	public static final class Snapshot {
+		public final long frameBudgetNanos;
+		public final long frames;
+		public final long frameOverruns;
+		private final long[] mCounts;
+		private final long[] mTotalNanos;
+		private final long[] mMaxNanos;
+		private final long[] mOverruns;
+		private final long[][] mBuckets;
+
+		Snapshot(HeaderJankStats stats) {
+			frameBudgetNanos = stats.mFrameBudgetNanos;
+			frames = stats.mFrames;
+			frameOverruns = stats.mFrameOverruns;
+			mCounts = stats.mCounts.clone();
+			mTotalNanos = stats.mTotalNanos.clone();
+			mMaxNanos = stats.mMaxNanos.clone();
+			mOverruns = stats.mOverruns.clone();
+			mBuckets = new long[PHASE_COUNT][];
+			for (int i = 0; i < PHASE_COUNT; i++) {
+				mBuckets[i] = stats.mBuckets[i].clone();
+			}
+		}
+
+		public long getCount(int phase) {
+			return mCounts[phase];
+		}
+
+		public long getTotalNanos(int phase) {
+			return mTotalNanos[phase];
+		}
+
+		public long getMaxNanos(int phase) {
+			return mMaxNanos[phase];
+		}
+
+		/**
+		 * 单次就超过一帧预算的次数
+		 */
+		public long getOverruns(int phase) {
+			return mOverruns[phase];
+		}
+
+		public long[] getBuckets(int phase) {
+			return mBuckets[phase].clone();
+		}
+
+		/**
+		 * fraction比例的样本不超过的耗时上限，单位微秒，按桶的上界估计
+		 */
+		public long getPercentileMicros(int phase, double fraction) {
+			final long count = mCounts[phase];
+			if (count == 0) {
+				return 0;
+			}
+			final long target = (long) Math.ceil(count * fraction);
+			final long[] buckets = mBuckets[phase];
+			long seen = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				seen += buckets[i];
+				if (seen >= target) {
+					return i == 0 ? 0 : Math.min(mMaxNanos[phase] / 1000, (1L << i) - 1);
+				}
+			}
+			return mMaxNanos[phase] / 1000;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("frames=").append(frames)
+					.append(" overruns=").append(frameOverruns)
+					.append(" budget=").append(frameBudgetNanos / 1000).append("us");
+			for (int i = 0; i < PHASE_COUNT; i++) {
+				final long count = mCounts[i];
+				sb.append('\n').append(PHASE_NAMES[i]).append(": count=").append(count);
+				if (count > 0) {
+					sb.append(" mean=").append(mTotalNanos[i] / count / 1000).append("us")
+							.append(" p50<=").append(getPercentileMicros(i, 0.5)).append("us")
+							.append(" p99<=").append(getPercentileMicros(i, 0.99)).append("us")
+							.append(" max=").append(mMaxNanos[i] / 1000).append("us")
+							.append(" overruns=").append(mOverruns[i]);
+				}
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.lian.pinheader.widget.pinheader;
+
+/**
+ * HeaderJankStats的检查，不依赖Android，直接在JVM上跑。
+ * 覆盖分桶、单个阶段的统计、百分位估计、帧超时、嵌套阶段、快照和reset，
+ * 结果不对抛IllegalStateException。
+ *
+ * <pre>
+ * javac -d out HeaderJankStats.java HeaderJankStatsCheck.java
+ * java -cp out com.lian.pinheader.widget.pinheader.HeaderJankStatsCheck
+ * </pre>
+ */
+final class HeaderJankStatsCheck {
+
+	private static final long MILLIS = 1000000L;
+
+	public static void main(String[] args) {
+		checkBuckets();
+		checkRecord();
+		checkPercentiles();
+		checkFrames();
+		checkSnapshotAndReset();
+		System.out.println("HeaderJankStats: all checks passed");
+	}
+
+	private static void checkBuckets() {
+		check(HeaderJankStats.bucketFor(0) == 0, "bucket of 0");
+		check(HeaderJankStats.bucketFor(1) == 1, "bucket of 1");
+		check(HeaderJankStats.bucketFor(2) == 2 && HeaderJankStats.bucketFor(3) == 2, "bucket of 2, 3");
+		check(HeaderJankStats.bucketFor(1023) == 10, "bucket of 1023");
+		check(HeaderJankStats.bucketFor(1024) == 11, "bucket of 1024");
+		check(HeaderJankStats.bucketFor(Long.MAX_VALUE) == HeaderJankStats.BUCKET_COUNT - 1,
+				"bucket of Long.MAX_VALUE");
+		try {
+			new HeaderJankStats(0);
+			throw new IllegalStateException("zero budget accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	private static void checkRecord() {
+		final HeaderJankStats stats = new HeaderJankStats(MILLIS);
+		stats.record(HeaderJankStats.PHASE_BIND, 500);
+		stats.record(HeaderJankStats.PHASE_BIND, 3 * MILLIS);
+		// 负数当0
+		stats.record(HeaderJankStats.PHASE_BIND, -5);
+		final HeaderJankStats.Snapshot snapshot = stats.snapshot();
+		final int phase = HeaderJankStats.PHASE_BIND;
+		check(snapshot.getCount(phase) == 3, "count " + snapshot.getCount(phase));
+		check(snapshot.getTotalNanos(phase) == 3 * MILLIS + 500, "total " + snapshot.getTotalNanos(phase));
+		check(snapshot.getMaxNanos(phase) == 3 * MILLIS, "max " + snapshot.getMaxNanos(phase));
+		check(snapshot.getOverruns(phase) == 1, "overruns " + snapshot.getOverruns(phase));
+		final long[] buckets = snapshot.getBuckets(phase);
+		check(buckets[0] == 2, "bucket 0 holds " + buckets[0]);
+		check(buckets[HeaderJankStats.bucketFor(3000)] == 1, "3ms bucket");
+		check(snapshot.getCount(HeaderJankStats.PHASE_DRAW) == 0, "other phase counted");
+		// getBuckets返回拷贝
+		buckets[0] = 100;
+		check(snapshot.getBuckets(phase)[0] == 2, "buckets not copied");
+	}
+
+	private static void checkPercentiles() {
+		final HeaderJankStats stats = new HeaderJankStats();
+		final int phase = HeaderJankStats.PHASE_SCROLL;
+		check(stats.snapshot().getPercentileMicros(phase, 0.5) == 0, "percentile without samples");
+		// 99个10us，1个5ms
+		for (int i = 0; i < 99; i++) {
+			stats.record(phase, 10000);
+		}
+		stats.record(phase, 5 * MILLIS);
+		final HeaderJankStats.Snapshot snapshot = stats.snapshot();
+		// 10us在[8, 16)这个桶里，按上界算是15
+		check(snapshot.getPercentileMicros(phase, 0.5) == 15, "p50 " + snapshot.getPercentileMicros(phase, 0.5));
+		check(snapshot.getPercentileMicros(phase, 0.99) == 15, "p99 " + snapshot.getPercentileMicros(phase, 0.99));
+		// 桶的上界是8191，不超过最大值5000
+		check(snapshot.getPercentileMicros(phase, 1) == 5000, "p100 " + snapshot.getPercentileMicros(phase, 1));
+	}
+
+	private static void checkFrames() {
+		final HeaderJankStats stats = new HeaderJankStats(MILLIS);
+		// record不计入当前帧
+		stats.record(HeaderJankStats.PHASE_DRAW, 5 * MILLIS);
+		stats.endFrame();
+		HeaderJankStats.Snapshot snapshot = stats.snapshot();
+		check(snapshot.frames == 1 && snapshot.frameOverruns == 0, "record counted in frame");
+		check(snapshot.getOverruns(HeaderJankStats.PHASE_DRAW) == 1, "record overrun");
+
+		// 嵌套的两个阶段各记一次，帧时间只算外层，外层超过预算算一次超时
+		final long outer = stats.begin();
+		final long inner = stats.begin();
+		spin(MILLIS / 2);
+		stats.end(HeaderJankStats.PHASE_BIND, inner);
+		spin(MILLIS);
+		stats.end(HeaderJankStats.PHASE_SCROLL, outer);
+		stats.endFrame();
+		snapshot = stats.snapshot();
+		check(snapshot.frames == 2 && snapshot.frameOverruns == 1, "nested frame overrun");
+		check(snapshot.getCount(HeaderJankStats.PHASE_BIND) == 1
+				&& snapshot.getCount(HeaderJankStats.PHASE_SCROLL) == 1, "nested phase counts");
+		check(snapshot.getMaxNanos(HeaderJankStats.PHASE_SCROLL)
+				>= snapshot.getMaxNanos(HeaderJankStats.PHASE_BIND), "outer shorter than inner");
+
+		// 上一帧的时间不带到下一帧
+		stats.endFrame();
+		snapshot = stats.snapshot();
+		check(snapshot.frames == 3 && snapshot.frameOverruns == 1, "frame time carried over");
+	}
+
+	private static void checkSnapshotAndReset() {
+		final HeaderJankStats stats = new HeaderJankStats();
+		stats.record(HeaderJankStats.PHASE_MEASURE, 1000);
+		stats.endFrame();
+		final HeaderJankStats.Snapshot before = stats.snapshot();
+		stats.record(HeaderJankStats.PHASE_MEASURE, 1000);
+		stats.endFrame();
+		check(before.getCount(HeaderJankStats.PHASE_MEASURE) == 1 && before.frames == 1,
+				"snapshot changed afterwards");
+
+		stats.reset();
+		final HeaderJankStats.Snapshot after = stats.snapshot();
+		for (int phase = 0; phase < HeaderJankStats.PHASE_COUNT; phase++) {
+			check(after.getCount(phase) == 0 && after.getTotalNanos(phase) == 0
+					&& after.getMaxNanos(phase) == 0 && after.getOverruns(phase) == 0,
+					"phase " + HeaderJankStats.getPhaseName(phase) + " not reset");
+			for (long count : after.getBuckets(phase)) {
+				check(count == 0, "buckets of " + HeaderJankStats.getPhaseName(phase) + " not reset");
+			}
+		}
+		check(after.frames == 0 && after.frameOverruns == 0, "frames not reset");
+		check(after.frameBudgetNanos == HeaderJankStats.DEFAULT_FRAME_BUDGET_NANOS, "budget changed");
+	}
+
+	/**
+	 * 忙等，保证阶段耗时至少这么长
+	 */
+	private static void spin(long nanos) {
+		final long start = System.nanoTime();
+		while (System.nanoTime() - start < nanos) {
+			// 空转
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.lian.pinheader.widget.pinheader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 分页加载group的child，child很多、要从磁盘读的时候用。
+ * adapter的getChildrenCount返回总数，getChild/getChildView里调用{@link #getChild}，
+ * 还没加载的返回null，adapter显示占位的item；这一页在后台加载完后
+ * 通过OnPageLoadedListener通知adapter刷新。
+ * 除了Source.loadPage，所有方法都在主线程调用。
+ * 交给{@link PinnedHeaderExpandableListView#setPagedChildLoader}后，
+ * 列表会在滚动、展开和下一个group快要悬停时提前加载。
+ */
+public class PagedChildLoader<T> {
+
+	private static final String TAG = "PagedChildLoader";
+
+	public interface Source<T> {
+		/**
+		 * 在后台线程调用，返回group里从start开始最多count个child
+		 */
+		public List<T> loadPage(int groupPosition, int start, int count);
+	}
+
+	public interface OnPageLoadedListener {
+		/**
+		 * 一般在这里notifyDataSetChanged
+		 */
+		public void onPageLoaded(int groupPosition, int start, int count);
+	}
+
+	private final Source<T> mSource;
+	private final Executor mExecutor;
+	private final int mPageSize;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private OnPageLoadedListener mListener;
+
+	/**
+	 * group -> (页号 -> 这一页的数据)
+	 */
+	private final SparseArray<SparseArray<List<T>>> mPages = new SparseArray<SparseArray<List<T>>>();
+	/**
+	 * 正在加载的页，key是group和页号拼起来的
+	 */
+	private final HashSet<Long> mLoading = new HashSet<Long>();
+	/**
+	 * clear()之后，之前发出去的加载结果都丢掉
+	 */
+	private int mGeneration;
+
+	public PagedChildLoader(Source<T> source, Executor executor, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("pageSize must be positive");
+		}
+		mSource = source;
+		mExecutor = executor;
+		mPageSize = pageSize;
+	}
+
+	public int getPageSize() {
+		return mPageSize;
+	}
+
+	public void setOnPageLoadedListener(OnPageLoadedListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * 已经加载的child，还没加载返回null，同时开始加载它所在的页
+	 */
+	public T getChild(int groupPosition, int childPosition) {
+		final int page = childPosition / mPageSize;
+		List<T> children = getPage(groupPosition, page);
+		if (children == null) {
+			loadPage(groupPosition, page);
+			return null;
+		}
+		final int index = childPosition % mPageSize;
+		return index < children.size() ? children.get(index) : null;
+	}
+
+	public boolean isLoaded(int groupPosition, int childPosition) {
+		return getPage(groupPosition, childPosition / mPageSize) != null;
+	}
+
+	/**
+	 * child所在的页还没加载就开始加载
+	 */
+	public void prefetch(int groupPosition, int childPosition) {
+		final int page = childPosition / mPageSize;
+		if (getPage(groupPosition, page) == null) {
+			loadPage(groupPosition, page);
+		}
+	}
+
+	/**
+	 * 滚动到child时调用，离已加载的末尾不到半页就加载下一页
+	 */
+	public void onChildShown(int groupPosition, int childPosition, int childrenCount) {
+		final int ahead = childPosition + mPageSize / 2;
+		if (ahead < childrenCount) {
+			prefetch(groupPosition, ahead);
+		}
+	}
+
+	/**
+	 * 数据整体变了时调用，丢掉已加载的页和还没返回的结果
+	 */
+	public void clear() {
+		mPages.clear();
+		mLoading.clear();
+		mGeneration++;
+	}
+
+	private List<T> getPage(int groupPosition, int page) {
+		SparseArray<List<T>> pages = mPages.get(groupPosition);
+		return pages != null ? pages.get(page) : null;
+	}
+
+	private void loadPage(final int groupPosition, final int page) {
+		final Long key = ((long) groupPosition << 32) | page;
+		if (!mLoading.add(key)) {
+			return;
+		}
+		final int generation = mGeneration;
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				List<T> result = null;
+				try {
+					result = mSource.loadPage(groupPosition, page * mPageSize, mPageSize);
+				} catch (RuntimeException e) {
+					Log.w(TAG, "load page " + page + " of group " + groupPosition + " failed", e);
+				}
+				final List<T> loaded = result;
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						onPageLoaded(generation, key, groupPosition, page, loaded);
+					}
+				});
+			}
+		});
+	}
+
+	private void onPageLoaded(int generation, Long key, int groupPosition, int page,
+			List<T> loaded) {
+		if (generation != mGeneration) {
+			return;
+		}
+		mLoading.remove(key);
+		if (loaded == null) {
+			// 加载失败，下次用到时再试
+			return;
+		}
+		SparseArray<List<T>> pages = mPages.get(groupPosition);
+		if (pages == null) {
+			pages = new SparseArray<List<T>>();
+			mPages.put(groupPosition, pages);
+		}
+		pages.put(page, loaded);
+		if (mListener != null) {
+			mListener.onPageLoaded(groupPosition, page * mPageSize, loaded.size());
+		}
+	}
+}
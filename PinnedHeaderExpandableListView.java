@@ -1,73 +1,1172 @@
 package com.lian.pinheader.widget.pinheader;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.DataSetObserver;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
+import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.animation.AnimationUtils;
 import android.widget.AbsListView;
+import android.widget.BaseExpandableListAdapter;
+import android.widget.ExpandableListAdapter;
 import android.widget.ExpandableListView;
+import android.widget.ListAdapter;
 import android.widget.AbsListView.OnScrollListener;
+import android.widget.AbsListView.RecyclerListener;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 public class PinnedHeaderExpandableListView extends ExpandableListView
 		implements OnScrollListener {
 
-	private static final String TAG = "PinnedHeaderExpandableListView";
+	private static final String TAG = "PinnedHeaderExpandableListView";
+
+	/**
+	 * 一帧的时间，fling时两次绑定header至少间隔这么久
+	 */
+	private static final long FRAME_INTERVAL_MS = 16;
+
+	private OnScrollListener mScrollListener;
+
+	private OnHeaderUpdateListener mHeaderUpdateListener;
+
+	public interface OnHeaderUpdateListener {
+		/**
+		 * 返回一个view对象即可 
+		 * @must view必须要有LayoutParams
+		 */
+		public View getPinnedHeader();
+
+		/**
+		 * 打开快照模式时，只有这里（和applyPinnedHeader）做的修改会被重画。
+		 * 之后再改header的内容，比如图片加载完成、代码里切换CheckBox，
+		 * 要调用invalidateHeaderSnapshot()
+		 */
+		public void updatePinnedHeader(View headerView, int firstVisibleGroupPos);
+	}
+
+	/**
+	 * 不同的group要用不同布局的header时实现这个接口，
+	 * 每种type的header只创建一次，之后在它们之间切换，不会重复inflate。
+	 * 这时getPinnedHeader()不会被调用
+	 */
+	public interface OnTypedHeaderUpdateListener extends OnHeaderUpdateListener {
+		/**
+		 * group对应的header类型，从0开始
+		 */
+		public int getPinnedHeaderType(int groupPosition);
+
+		/**
+		 * 创建type类型的header，每种type只会调用一次
+		 * @must view必须要有LayoutParams
+		 */
+		public View createPinnedHeader(int type);
+	}
+
+	/**
+	 * 每种type的header和它上次measure的结果
+	 */
+	private static final class HeaderHolder {
+		final View view;
+		int width;
+		int height;
+		int widthMeasureSpec;
+		int heightMeasureSpec;
+		boolean isMeasured;
+
+		HeaderHolder(View view) {
+			this.view = view;
+		}
+	}
+
+	private final SparseArray<HeaderHolder> mHeaderCache = new SparseArray<HeaderHolder>();
+	private HeaderHolder mHeader;
+	private int mHeaderType;
+
+	/**
+	 * 第二层悬停的header，叠在group的header下面，显示group里当前所在的分段，
+	 * 比如group里的子分类
+	 */
+	public interface OnSubHeaderUpdateListener {
+		/**
+		 * group里每个分段第一个child的位置，升序排列，没有分段返回null
+		 */
+		public int[] getSubHeaderPositions(int groupPosition);
+
+		/**
+		 * @must view必须要有LayoutParams
+		 */
+		public View getPinnedSubHeader();
+
+		/**
+		 * @param childPosition 分段第一个child的位置
+		 */
+		public void updatePinnedSubHeader(View subHeaderView, int groupPosition,
+				int childPosition);
+	}
+
+	private static final int[] NO_SUB_HEADERS = new int[0];
+
+	private OnSubHeaderUpdateListener mSubHeaderUpdateListener;
+	private View pinSubHeaderView;
+	private int pinSubHeaderWidth;
+	private int pinSubHeaderHeight;
+	private boolean isSubHeaderVisible;
+	private int mSubHeaderTop;
+	private int mBoundSubGroup = INVALID_POSITION;
+	private int mBoundSubChild = INVALID_POSITION;
+	private int mBoundSubDataVersion;
+	/**
+	 * 每个group的分段位置，数据变了就清掉
+	 */
+	private final SparseArray<int[]> mSubHeaderPositions = new SparseArray<int[]>();
+	private int mSubHeaderPositionsVersion;
+
+	/**
+	 * 这个Header就是悬停的Header
+	 */
+	private View pinHeaderView;
+	private int pinHeaderWidth;
+	private int pinHeaderHeight;
+
+	/**
+	 * 在pinHeader布局点击的view
+	 */
+	private View pinTouchedView;
+	private final HeaderHitIndex mHeaderHitIndex = new HeaderHitIndex();
+
+	/**
+	 * 判断headerView是否被点击
+	 */
+	private boolean isActionDown = false;
+
+	/**
+	 * 判断子header是否被按下，抬起时在子header上才算点击
+	 */
+	private boolean isSubHeaderActionDown = false;
+
+	protected boolean isHeaderGroupClicked = true;
+
+	/**
+	 * 扁平位置 -> group 的索引，代替 getExpandableListPosition
+	 */
+	private final GroupPositionIndex mGroupIndex = new GroupPositionIndex();
+	private boolean isGroupIndexDirty = true;
+	private int[] mGroupSizes = new int[0];
+
+	/**
+	 * 哪些group是展开的，一个group一位。
+	 * 数据变了以后ExpandableListView可能按id调整展开状态，所以要重新读一次
+	 */
+	private final BitSet mExpandedGroups = new BitSet();
+	private boolean isExpandedGroupsDirty = true;
+	/**
+	 * 恢复状态时还没有adapter，等setAdapter再展开
+	 */
+	private BitSet mPendingExpandedGroups;
+	private int mPendingGroupCount;
+
+	/**
+	 * 批量展开、收起时把requestLayout攒到最后一次
+	 */
+	private boolean isBulkUpdating;
+	private boolean hasPendingLayout;
+
+	/**
+	 * 上次绑定到header的group和当时的数据版本，两者都没变就不再回调updatePinnedHeader
+	 */
+	private int mBoundGroup = INVALID_POSITION;
+	private int mBoundDataVersion;
+	private int mDataVersion;
+	/**
+	 * header当前的top，没变就不重新layout
+	 */
+	private int mHeaderTop;
+	/**
+	 * 这一次refreshHeader里header旧位置和新位置的并集，只invalidate这块区域
+	 */
+	private final Rect mHeaderDamage = new Rect();
+	private int mWidthMeasureSpec;
+	private int mHeightMeasureSpec;
+	private boolean hasMeasureSpec;
+
+	/**
+	 * refreshHeader的次数和真正回调updatePinnedHeader的次数
+	 */
+	private long mHeaderRefreshCount;
+	private long mHeaderRebindCount;
+
+	/**
+	 * 快照模式：header每次绑定后只画一次到bitmap，滚动时只画这张bitmap
+	 */
+	private boolean isHeaderSnapshotEnabled;
+	private boolean isHeaderSnapshotDirty = true;
+	private Bitmap mHeaderSnapshot;
+	private Canvas mHeaderSnapshotCanvas;
+	private Paint mHeaderSnapshotPaint;
+
+	/**
+	 * fling时只更新header的位置，绑定每帧最多一次，停下来再完整绑定一次
+	 */
+	private boolean isFlingThrottleEnabled;
+	private int mScrollState = SCROLL_STATE_IDLE;
+	private long mLastBindTime;
+	private boolean isHeaderBindDeferred;
+	private boolean isFlingThrottled;
+	private boolean isDeferredBindPosted;
+
+	private final Runnable mDeferredBind = new Runnable() {
+		@Override
+		public void run() {
+			isDeferredBindPosted = false;
+			if (isHeaderBindDeferred) {
+				isHeaderBindDeferred = false;
+				refreshHeader();
+			}
+		}
+	};
+
+	/**
+	 * 分页加载child，展开、滚动和下一个group快要悬停时提前加载
+	 */
+	private PagedChildLoader<?> mChildLoader;
+
+	/**
+	 * header每一帧的耗时统计，为null时不统计
+	 */
+	private HeaderJankStats mJankStats;
+
+	private GroupSectionIndexer mSectionIndexer;
+
+	/**
+	 * 列表自己的RecycleBin没有可复用的View时，adapter从这里拿View
+	 */
+	public interface RowViewFactory {
+		public View createGroupView(ViewGroup parent, int groupType);
+
+		public View createChildView(ViewGroup parent, int childType);
+	}
+
+	private SharedViewPool mViewPool;
+	private RowViewFactory mRowViewFactory;
+	private PooledExpandableListAdapter mPooledAdapter;
+	private RecyclerListener mRecyclerListener;
+	/**
+	 * 记下进了RecycleBin的行View，清空RecycleBin前还给共享池
+	 */
+	private final RecyclerListener mInternalRecyclerListener = new RecyclerListener() {
+		@Override
+		public void onMovedToScrapHeap(View view) {
+			if (mPooledAdapter != null) {
+				mPooledAdapter.onMovedToScrapHeap(view);
+			}
+			if (mRecyclerListener != null) {
+				mRecyclerListener.onMovedToScrapHeap(view);
+			}
+		}
+	};
+	/**
+	 * 空闲时按滚动方向提前创建的行数至少是这么多
+	 */
+	private static final int MIN_PREFETCH_ROWS = 2;
+	private int mScrollDirection = 1;
+	private int mLastFirstVisibleItem;
+	private int mLastVisibleItemCount;
+	private boolean isIdlePrefetchScheduled;
+	private final SparseIntArray mPrefetchNeeded = new SparseIntArray();
+	private final MessageQueue.IdleHandler mIdlePrefetch = new MessageQueue.IdleHandler() {
+		@Override
+		public boolean queueIdle() {
+			boolean more = prefetchRowView();
+			if (!more) {
+				isIdlePrefetchScheduled = false;
+			}
+			return more;
+		}
+	};
+
+	/**
+	 * header像RecyclerView的ItemDecoration一样画在最上层，不受padding裁剪
+	 */
+	private boolean isHeaderDecoration;
+
+	/**
+	 * 下一个group开始顶上来时，在后台先准备好它的header要用的数据，
+	 * 真正切换时只是把准备好的数据设置上去
+	 */
+	public interface OnHeaderPrefetchListener {
+		/**
+		 * 在后台线程调用，比如解码图片、格式化文字，不能碰View
+		 */
+		public Object prefetchPinnedHeader(int groupPosition);
+
+		/**
+		 * 在主线程调用，header切换到group时代替updatePinnedHeader。
+		 * 快照模式下之后对header的修改同样要调用invalidateHeaderSnapshot()
+		 * @param data prefetchPinnedHeader的返回值
+		 */
+		public void applyPinnedHeader(View headerView, int groupPosition, Object data);
+	}
+
+	private OnHeaderPrefetchListener mPrefetchListener;
+	private Executor mPrefetchExecutor;
+	private int mPrefetchGroup = INVALID_POSITION;
+	private int mPrefetchDataVersion;
+	private boolean isPrefetchReady;
+	private Object mPrefetchData;
+	/**
+	 * 每次发起预取加一，旧的结果回来就丢掉
+	 */
+	private int mPrefetchGeneration;
+
+	/**
+	 * 差量更新：正在应用比较结果时忽略adapter的onChanged
+	 */
+	private boolean isApplyingDiff;
+	/**
+	 * 每次submitDiff加一，旧的比较结果回来就丢掉
+	 */
+	private int mDiffGeneration;
+	/**
+	 * adapter现在显示的数据，也就是上一次应用的新数据，下一次submitDiff和它比较。
+	 * 这样中间被丢掉的提交里的变化不会漏掉。
+	 * 换adapter或者adapter在submitDiff以外notify过之后作废，下一次用调用者给的旧数据
+	 */
+	private List<?> mDiffGroups;
+	private List<?> mDiffChildren;
+
+	private ExpandableListAdapter mAdapter;
+	private OnGroupExpandListener mGroupExpandListener;
+	private OnGroupCollapseListener mGroupCollapseListener;
+
+	private final DataSetObserver mDataSetObserver = new DataSetObserver() {
+		@Override
+		public void onChanged() {
+			if (isApplyingDiff) {
+				// submitDiff自己处理索引和header
+				return;
+			}
+			isGroupIndexDirty = true;
+			isExpandedGroupsDirty = true;
+			mDataVersion++;
+			clearDiffSnapshot();
+		}
+
+		@Override
+		public void onInvalidated() {
+			clearDiffSnapshot();
+			isGroupIndexDirty = true;
+			isExpandedGroupsDirty = true;
+			mDataVersion++;
+		}
+	};
+
+	/**
+	 * 点击group行时ExpandableListView不走expandGroup()，但一定会回调这两个listener，
+	 * 所以在这里更新索引
+	 */
+	private final OnGroupExpandListener mInternalExpandListener = new OnGroupExpandListener() {
+		@Override
+		public void onGroupExpand(int groupPosition) {
+			if (!isExpandedGroupsDirty) {
+				mExpandedGroups.set(groupPosition);
+			}
+			updateGroupSize(groupPosition, true);
+			rebindToggledGroup(groupPosition);
+			// expandAll、setExpandedGroups和恢复状态时不在这里预取，否则每个group都排一次加载，
+			// setExpandedGroups最后只预取屏幕上的
+			if (mChildLoader != null && !isBulkUpdating) {
+				mChildLoader.prefetch(groupPosition, 0);
+			}
+			if (mGroupExpandListener != null) {
+				mGroupExpandListener.onGroupExpand(groupPosition);
+			}
+		}
+	};
+
+	private final OnGroupCollapseListener mInternalCollapseListener = new OnGroupCollapseListener() {
+		@Override
+		public void onGroupCollapse(int groupPosition) {
+			if (!isExpandedGroupsDirty) {
+				mExpandedGroups.clear(groupPosition);
+			}
+			updateGroupSize(groupPosition, false);
+			rebindToggledGroup(groupPosition);
+			if (mGroupCollapseListener != null) {
+				mGroupCollapseListener.onGroupCollapse(groupPosition);
+			}
+		}
+	};
+
+	public PinnedHeaderExpandableListView(Context context) {
+		super(context);
+		initView(context);
+	}
+
+	public PinnedHeaderExpandableListView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		initView(context);
+	}
+
+	public PinnedHeaderExpandableListView(Context context, AttributeSet attrs,
+			int defStyle) {
+		super(context, attrs, defStyle);
+		initView(context);
+	}
+
+	private void initView(Context context) {
+		setFadingEdgeLength(0);
+		setOnScrollListener(this);
+		super.setOnGroupExpandListener(mInternalExpandListener);
+		super.setOnGroupCollapseListener(mInternalCollapseListener);
+		super.setRecyclerListener(mInternalRecyclerListener);
+	}
+
+	@Override
+	public void setRecyclerListener(RecyclerListener listener) {
+		mRecyclerListener = listener;
+	}
+
+	@Override
+	public void setAdapter(ExpandableListAdapter adapter) {
+		if (mAdapter != null) {
+			mAdapter.unregisterDataSetObserver(mDataSetObserver);
+		}
+		mAdapter = adapter;
+		if (adapter != null) {
+			adapter.registerDataSetObserver(mDataSetObserver);
+		}
+		clearDiffSnapshot();
+		isGroupIndexDirty = true;
+		// 父类会清空RecycleBin和屏幕上的行，先把它们还给池
+		recycleRowsToPool(true);
+		if (adapter != null && mViewPool != null) {
+			mPooledAdapter = new PooledExpandableListAdapter(adapter, mViewPool);
+			super.setAdapter(mPooledAdapter);
+		} else {
+			mPooledAdapter = null;
+			super.setAdapter(adapter);
+		}
+		// 新的adapter所有group都是收起的
+		mExpandedGroups.clear();
+		isExpandedGroupsDirty = false;
+		if (adapter != null && mPendingExpandedGroups != null) {
+			if (adapter.getGroupCount() == mPendingGroupCount) {
+				setExpandedGroups(mPendingExpandedGroups);
+			}
+			mPendingExpandedGroups = null;
+		}
+	}
+
+	/**
+	 * 差量更新数据：在executor上比较新旧数据，然后在主线程调用swapData把adapter换成新数据。
+	 * 只有内容变化时不notifyDataSetChanged，只重新绑定看得见的、变了的行；
+	 * 有结构性变化时所有变化合并成一次notifyDataSetChanged。
+	 * 两种情况下header都只在它的group受影响时才重新绑定。
+	 * swapData里不要再notifyDataSetChanged，adapter必须继承BaseExpandableListAdapter。
+	 * 比较完成前又提交了新的数据，这次的结果会被丢掉，swapData也不会调用。
+	 * 新数据总是和adapter现在显示的数据比较：oldGroups/oldChildren只在setAdapter以后
+	 * 或者adapter在这里以外notify过以后的第一次提交时用到，之后用上一次应用的新数据，
+	 * 所以提交以后不要再修改传进来的list
+	 */
+	public <G, C> void submitDiff(final List<G> oldGroups,
+			final List<? extends List<C>> oldChildren, final List<G> newGroups,
+			final List<? extends List<C>> newChildren,
+			final ExpandableDiff.Callback<G, C> callback, final Runnable swapData,
+			Executor executor) {
+		if (!(mAdapter instanceof BaseExpandableListAdapter)) {
+			throw new IllegalStateException(
+					"submitDiff needs an adapter extending BaseExpandableListAdapter");
+		}
+		if (mDiffGroups == null) {
+			mDiffGroups = oldGroups;
+			mDiffChildren = oldChildren;
+		}
+		// 前一次提交可能被丢掉了，不能信调用者给的旧数据
+		@SuppressWarnings("unchecked")
+		final List<G> baseGroups = (List<G>) mDiffGroups;
+		@SuppressWarnings("unchecked")
+		final List<? extends List<C>> baseChildren = (List<? extends List<C>>) mDiffChildren;
+		final int generation = ++mDiffGeneration;
+		final ExpandableListAdapter adapter = mAdapter;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final ExpandableDiff.Result result = ExpandableDiff.compute(baseGroups,
+						baseChildren, newGroups, newChildren, callback);
+				post(new Runnable() {
+					@Override
+					public void run() {
+						if (generation == mDiffGeneration && adapter == mAdapter) {
+							applyDiff(result, swapData);
+							mDiffGroups = newGroups;
+							mDiffChildren = newChildren;
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void clearDiffSnapshot() {
+		mDiffGroups = null;
+		mDiffChildren = null;
+	}
+
+	private void applyDiff(ExpandableDiff.Result result, Runnable swapData) {
+		final BaseExpandableListAdapter adapter = (BaseExpandableListAdapter) mAdapter;
+		swapData.run();
+		if (!result.hasChanges()) {
+			return;
+		}
+		if (result.isStructural() || !rebindChangedRows(result)) {
+			// ListView没有局部的增删通知，所有变化合并成一次刷新
+			isApplyingDiff = true;
+			try {
+				adapter.notifyDataSetChanged();
+			} finally {
+				isApplyingDiff = false;
+			}
+			isGroupIndexDirty = true;
+			isExpandedGroupsDirty = true;
+			mSubHeaderPositions.clear();
+			clearHeaderPrefetch();
+		} else {
+			// 没有notify，mDataVersion没变，受影响的group的缓存要自己清掉。
+			// 倒着删，keyAt整理数组时不影响前面的下标
+			for (int i = mSubHeaderPositions.size() - 1; i >= 0; i--) {
+				final int group = mSubHeaderPositions.keyAt(i);
+				if (result.isGroupAffected(group)) {
+					mSubHeaderPositions.remove(group);
+				}
+			}
+			if (result.isGroupAffected(mPrefetchGroup)) {
+				clearHeaderPrefetch();
+			}
+		}
+
+		// header的group挪了位置就跟着挪，只有它自己受影响才重新绑定
+		boolean isHeaderAffected = false;
+		int boundGroup = result.isStructural()
+				? result.getNewGroupPosition(mBoundGroup) : mBoundGroup;
+		if (result.isGroupAffected(boundGroup)) {
+			boundGroup = INVALID_POSITION;
+			isHeaderAffected = true;
+		}
+		mBoundGroup = boundGroup;
+		int boundSubGroup = result.isStructural()
+				? result.getNewGroupPosition(mBoundSubGroup) : mBoundSubGroup;
+		if (result.isGroupAffected(boundSubGroup)) {
+			boundSubGroup = INVALID_POSITION;
+			isHeaderAffected = true;
+		}
+		mBoundSubGroup = boundSubGroup;
+		if (isHeaderAffected && !result.isStructural()) {
+			// 没有notify就不会layout，这里自己刷新
+			refreshHeader();
+		}
+	}
+
+	/**
+	 * 只有内容变化时，用现有的View重新绑定看得见的、变了的行。
+	 * adapter没有复用传进去的View时返回false，只能整体刷新
+	 */
+	private boolean rebindChangedRows(ExpandableDiff.Result result) {
+		final ExpandableListAdapter adapter = mAdapter;
+		final int firstVisiblePos = getFirstVisiblePosition();
+		final int childCount = getChildCount();
+		for (int i = 0; i < childCount; i++) {
+			final int flatPos = firstVisiblePos + i;
+			final int group = getGroupAtFlatPosition(flatPos);
+			if (!result.isGroupAffected(group)) {
+				continue;
+			}
+			final View row = getChildAt(i);
+			final int groupFlatPos = getFlatPositionOfGroup(group);
+			View bound;
+			if (flatPos == groupFlatPos) {
+				if (!result.isGroupChanged(group)) {
+					continue;
+				}
+				bound = adapter.getGroupView(group, isGroupExpanded(group), row, this);
+			} else {
+				final int child = flatPos - groupFlatPos - 1;
+				if (!result.isChildChanged(group, child)) {
+					continue;
+				}
+				bound = adapter.getChildView(group, child,
+						child == adapter.getChildrenCount(group) - 1, row, this);
+			}
+			if (bound != row) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 返回应用设置的adapter，而不是包装过的
+	 */
+	@Override
+	public ExpandableListAdapter getExpandableListAdapter() {
+		return mAdapter;
+	}
+
+	/**
+	 * 用共享的View池：列表没有可复用的View时先从池里取，
+	 * 主线程空闲时按滚动方向提前创建后面几行的View放进池里。
+	 * 多个列表可以用同一个池，但同一个类型的行布局必须相同。
+	 * 传null恢复默认
+	 */
+	public void setSharedViewPool(SharedViewPool pool, RowViewFactory factory) {
+		if (pool == mViewPool && factory == mRowViewFactory) {
+			return;
+		}
+		final boolean rewrap = pool != mViewPool;
+		mViewPool = pool;
+		mRowViewFactory = factory;
+		stopIdlePrefetch();
+		if (rewrap && mAdapter != null) {
+			// 重新包装adapter会清掉展开状态，先存下来
+			BitSet expanded = getExpandedGroups();
+			setAdapter(mAdapter);
+			setExpandedGroups(expanded);
+		}
+	}
+
+	public SharedViewPool getSharedViewPool() {
+		return mViewPool;
+	}
+
+	/**
+	 * 打开后header在draw()里最后画，盖在滚动条和边缘效果上面，不受clipToPadding影响
+	 */
+	public void setHeaderDrawnAsDecoration(boolean decoration) {
+		if (isHeaderDecoration != decoration) {
+			isHeaderDecoration = decoration;
+			invalidate();
+		}
+	}
+
+	public boolean isHeaderDrawnAsDecoration() {
+		return isHeaderDecoration;
+	}
+
+	private void scheduleIdlePrefetch(int firstVisibleItem, int visibleItemCount) {
+		if (firstVisibleItem != mLastFirstVisibleItem) {
+			mScrollDirection = firstVisibleItem > mLastFirstVisibleItem ? 1 : -1;
+		}
+		mLastFirstVisibleItem = firstVisibleItem;
+		mLastVisibleItemCount = visibleItemCount;
+		if (!isIdlePrefetchScheduled) {
+			isIdlePrefetchScheduled = true;
+			Looper.myQueue().addIdleHandler(mIdlePrefetch);
+		}
+	}
+
+	private void stopIdlePrefetch() {
+		if (isIdlePrefetchScheduled) {
+			isIdlePrefetchScheduled = false;
+			Looper.myQueue().removeIdleHandler(mIdlePrefetch);
+		}
+	}
+
+	/**
+	 * 在滚动方向上看后面的几行，池里这种类型的View不够就创建一个。
+	 * 每次空闲只创建一个，还有要创建的返回true
+	 */
+	private boolean prefetchRowView() {
+		if (mViewPool == null || mRowViewFactory == null || mAdapter == null) {
+			return false;
+		}
+		final int window = Math.max(MIN_PREFETCH_ROWS, mLastVisibleItemCount / 2);
+		final int start = mScrollDirection > 0
+				? mLastFirstVisibleItem + mLastVisibleItemCount
+				: mLastFirstVisibleItem - window;
+		mPrefetchNeeded.clear();
+		for (int pos = Math.max(start, 0); pos < start + window; pos++) {
+			final int type = getRowPoolType(pos);
+			if (type < 0) {
+				continue;
+			}
+			final int needed = mPrefetchNeeded.get(type) + 1;
+			mPrefetchNeeded.put(type, needed);
+			if (needed > mViewPool.getMaxScrap(type) || mViewPool.getCount(type) >= needed) {
+				continue;
+			}
+			View view;
+			if (type >= PooledExpandableListAdapter.CHILD_TYPE_OFFSET) {
+				view = mRowViewFactory.createChildView(this,
+						type - PooledExpandableListAdapter.CHILD_TYPE_OFFSET);
+			} else {
+				view = mRowViewFactory.createGroupView(this, type);
+			}
+			return view != null && mViewPool.put(type, view);
+		}
+		return false;
+	}
+
+	/**
+	 * RecycleBin马上要被清空时调用，把里面的行View放进共享池。
+	 * withChildren为true时屏幕上的行也收回来，只能在马上要换adapter时用
+	 */
+	private void recycleRowsToPool(boolean withChildren) {
+		final PooledExpandableListAdapter pooled = mPooledAdapter;
+		if (pooled == null) {
+			return;
+		}
+		if (withChildren) {
+			// 屏幕上的行也会回调RecyclerListener
+			reclaimViews(new ArrayList<View>());
+		}
+		pooled.recycleScrapViews();
+	}
+
+	/**
+	 * 扁平位置那一行在池里的类型，不是group或child返回-1
+	 */
+	private int getRowPoolType(int flatPos) {
+		final int group = getGroupAtFlatPosition(flatPos);
+		if (group < 0) {
+			return -1;
+		}
+		final int groupFlatPos = getFlatPositionOfGroup(group);
+		if (flatPos == groupFlatPos) {
+			return PooledExpandableListAdapter.getGroupType(mAdapter, group);
+		}
+		return PooledExpandableListAdapter.CHILD_TYPE_OFFSET
+				+ PooledExpandableListAdapter.getChildType(mAdapter, group,
+						flatPos - groupFlatPos - 1);
+	}
+
+	@Override
+	public void setOnGroupExpandListener(OnGroupExpandListener onGroupExpandListener) {
+		mGroupExpandListener = onGroupExpandListener;
+	}
+
+	@Override
+	public void setOnGroupCollapseListener(OnGroupCollapseListener onGroupCollapseListener) {
+		mGroupCollapseListener = onGroupCollapseListener;
+	}
+
+	/**
+	 * 扁平位置所在的group，O(log n)，等价于
+	 * getPackedPositionGroup(getExpandableListPosition(flatPos))
+	 */
+	public int getGroupAtFlatPosition(int flatPos) {
+		ensureGroupIndex();
+		return mGroupIndex.getGroup(flatPos - getHeaderViewsCount());
+	}
+
+	/**
+	 * group行的扁平位置，O(log n)
+	 */
+	public int getFlatPositionOfGroup(int groupPosition) {
+		ensureGroupIndex();
+		return mGroupIndex.getFlatPosition(groupPosition) + getHeaderViewsCount();
+	}
+
+	private void ensureGroupIndex() {
+		if (!isGroupIndexDirty) {
+			return;
+		}
+		isGroupIndexDirty = false;
+		final ExpandableListAdapter adapter = mAdapter;
+		final int count = adapter != null ? adapter.getGroupCount() : 0;
+		if (mGroupSizes.length < count) {
+			mGroupSizes = new int[count];
+		}
+		ensureExpandedGroups();
+		final BitSet expanded = mExpandedGroups;
+		for (int i = 0; i < count; i++) {
+			mGroupSizes[i] = expanded.get(i) ? 1 + adapter.getChildrenCount(i) : 1;
+		}
+		mGroupIndex.rebuild(mGroupSizes, count);
+	}
+
+	/**
+	 * 展开、收起不会通知adapter数据变了，header绑定的还是原来的展开状态，
+	 * 悬停的正是这个group时要重新绑定
+	 */
+	private void rebindToggledGroup(int groupPosition) {
+		if (groupPosition == mPrefetchGroup) {
+			clearHeaderPrefetch();
+		}
+		if (groupPosition != mBoundGroup && groupPosition != mBoundSubGroup) {
+			return;
+		}
+		if (groupPosition == mBoundGroup) {
+			mBoundGroup = INVALID_POSITION;
+		}
+		if (groupPosition == mBoundSubGroup) {
+			mBoundSubGroup = INVALID_POSITION;
+		}
+		// 批量操作时由setExpandedGroups最后统一重新绑定
+		if (!isBulkUpdating) {
+			refreshHeader();
+		}
+	}
+
+	private void updateGroupSize(int groupPosition, boolean expanded) {
+		if (isBulkUpdating) {
+			// 批量操作结束后整体重建
+			isGroupIndexDirty = true;
+			return;
+		}
+		if (isGroupIndexDirty || groupPosition < 0
+				|| groupPosition >= mGroupIndex.getGroupCount()) {
+			isGroupIndexDirty = true;
+			return;
+		}
+		mGroupIndex.setGroupSize(groupPosition,
+				expanded ? 1 + mAdapter.getChildrenCount(groupPosition) : 1);
+	}
+
+	private void ensureExpandedGroups() {
+		if (!isExpandedGroupsDirty) {
+			return;
+		}
+		isExpandedGroupsDirty = false;
+		mExpandedGroups.clear();
+		final ListAdapter flatAdapter = getAdapter();
+		final int count = mAdapter != null && flatAdapter != null ? mAdapter.getGroupCount() : 0;
+		if (count == 0) {
+			return;
+		}
+		// isGroupExpanded()是线性查找，逐个group问就是O(n*e)。
+		// getFlatListPosition()是二分查找，相邻两个group行之间隔着child就是展开的。
+		// 展开但没有child的group算成收起，对索引和header没有影响
+		final int end = flatAdapter.getCount() - getFooterViewsCount();
+		int flatPos = getFlatListPosition(getPackedPositionForGroup(0));
+		for (int i = 0; i < count; i++) {
+			final int next = i + 1 < count
+					? getFlatListPosition(getPackedPositionForGroup(i + 1)) : end;
+			if (next - flatPos > 1) {
+				mExpandedGroups.set(i);
+			}
+			flatPos = next;
+		}
+	}
+
+	/**
+	 * 当前展开的group，返回的是拷贝
+	 */
+	public BitSet getExpandedGroups() {
+		ensureExpandedGroups();
+		return (BitSet) mExpandedGroups.clone();
+	}
+
+	public void expandAll() {
+		final int count = mAdapter != null ? mAdapter.getGroupCount() : 0;
+		BitSet all = new BitSet(count);
+		all.set(0, count);
+		setExpandedGroups(all);
+	}
+
+	public void collapseAll() {
+		setExpandedGroups(new BitSet());
+	}
+
+	/**
+	 * 让expanded里的group展开，其余的收起，只对状态有变化的group操作，
+	 * 全部改完后才layout一次
+	 */
+	public void setExpandedGroups(BitSet expanded) {
+		if (mAdapter == null) {
+			return;
+		}
+		ensureExpandedGroups();
+		final int count = mAdapter.getGroupCount();
+		BitSet toCollapse = (BitSet) mExpandedGroups.clone();
+		toCollapse.andNot(expanded);
+		BitSet toExpand = (BitSet) expanded.clone();
+		toExpand.andNot(mExpandedGroups);
+		if (toCollapse.isEmpty() && toExpand.isEmpty()) {
+			return;
+		}
+
+		isBulkUpdating = true;
+		try {
+			for (int i = toCollapse.nextSetBit(0); i >= 0 && i < count;
+					i = toCollapse.nextSetBit(i + 1)) {
+				collapseGroup(i);
+			}
+			for (int i = toExpand.nextSetBit(0); i >= 0 && i < count;
+					i = toExpand.nextSetBit(i + 1)) {
+				expandGroup(i);
+			}
+		} finally {
+			isBulkUpdating = false;
+		}
+		isGroupIndexDirty = true;
+		if (mChildLoader != null && getChildCount() > 0) {
+			// 只给屏幕上新展开的group加载第一页
+			final int firstGroup = getGroupAtFlatPosition(getFirstVisiblePosition());
+			final int lastFlatPos = getFirstVisiblePosition() + getChildCount() - 1;
+			int lastGroup = getGroupAtFlatPosition(lastFlatPos);
+			if (lastGroup < 0 && lastFlatPos >= getHeaderViewsCount()) {
+				// 最后一行是footer
+				lastGroup = count - 1;
+			}
+			for (int i = toExpand.nextSetBit(Math.max(firstGroup, 0)); i >= 0 && i <= lastGroup
+					&& i < count; i = toExpand.nextSetBit(i + 1)) {
+				mChildLoader.prefetch(i, 0);
+			}
+		}
+		// 展开状态变了，header可能要显示不同的内容
+		mBoundGroup = INVALID_POSITION;
+		mBoundSubGroup = INVALID_POSITION;
+		if (hasPendingLayout) {
+			hasPendingLayout = false;
+			requestLayout();
+		}
+	}
+
+	@Override
+	public void requestLayout() {
+		if (isBulkUpdating) {
+			hasPendingLayout = true;
+			return;
+		}
+		super.requestLayout();
+	}
+
+	@Override
+	public Parcelable onSaveInstanceState() {
+		SavedState ss = new SavedState(super.onSaveInstanceState());
+		ensureExpandedGroups();
+		ss.groupCount = mAdapter != null ? mAdapter.getGroupCount() : 0;
+		ss.expandedGroups = toWords(mExpandedGroups);
+		return ss;
+	}
+
+	@Override
+	public void onRestoreInstanceState(Parcelable state) {
+		if (!(state instanceof SavedState)) {
+			super.onRestoreInstanceState(state);
+			return;
+		}
+		SavedState ss = (SavedState) state;
+		super.onRestoreInstanceState(ss.getSuperState());
+		BitSet expanded = fromWords(ss.expandedGroups);
+		if (mAdapter == null) {
+			mPendingExpandedGroups = expanded;
+			mPendingGroupCount = ss.groupCount;
+		} else {
+			// 父类已经把同一份展开状态交给了adapter，直接用位图，不用逐个group再查一遍
+			mExpandedGroups.clear();
+			mExpandedGroups.or(expanded);
+			isExpandedGroupsDirty = mAdapter.getGroupCount() != ss.groupCount;
+			isGroupIndexDirty = true;
+		}
+	}
+
+	/**
+	 * BitSet.toLongArray()要API 19，这里自己转
+	 */
+	private static long[] toWords(BitSet bits) {
+		long[] words = new long[(bits.length() + 63) >> 6];
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			words[i >> 6] |= 1L << i;
+		}
+		return words;
+	}
+
+	private static BitSet fromWords(long[] words) {
+		BitSet bits = new BitSet(words.length << 6);
+		for (int i = 0; i < words.length; i++) {
+			long word = words[i];
+			while (word != 0) {
+				bits.set((i << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * 展开状态按位存成long[]，5万个group也只有几KB，恢复时不用创建大量对象
+	 */
+	static class SavedState extends BaseSavedState {
+		int groupCount;
+		long[] expandedGroups;
+
+		SavedState(Parcelable superState) {
+			super(superState);
+		}
+
+		private SavedState(Parcel in) {
+			super(in);
+			groupCount = in.readInt();
+			expandedGroups = in.createLongArray();
+		}
 
-	private OnScrollListener mScrollListener;
+		@Override
+		public void writeToParcel(Parcel out, int flags) {
+			super.writeToParcel(out, flags);
+			out.writeInt(groupCount);
+			out.writeLongArray(expandedGroups);
+		}
 
-	private OnHeaderUpdateListener mHeaderUpdateListener;
+		public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+			@Override
+			public SavedState createFromParcel(Parcel in) {
+				return new SavedState(in);
+			}
 
-	public interface OnHeaderUpdateListener {
-		/**
-		 * 返回一个view对象即可 
-		 * @must view必须要有LayoutParams
-		 */
-		public View getPinnedHeader();
+			@Override
+			public SavedState[] newArray(int size) {
+				return new SavedState[size];
+			}
+		};
+	}
 
-		public void updatePinnedHeader(View headerView, int firstVisibleGroupPos);
+	public void setSectionIndexer(GroupSectionIndexer indexer) {
+		mSectionIndexer = indexer;
+	}
+
+	public GroupSectionIndexer getSectionIndexer() {
+		return mSectionIndexer;
 	}
 
 	/**
-	 * 这个Header就是悬停的Header
+	 * 跳到分段的第一个group
 	 */
-	private View pinHeaderView;
-	private int pinHeaderWidth;
-	private int pinHeaderHeight;
+	public void scrollToSection(int section) {
+		if (mSectionIndexer != null) {
+			scrollToGroup(mSectionIndexer.getPositionForSection(section), 0);
+		}
+	}
 
 	/**
-	 * 在pinHeader布局点击的view
+	 * 直接跳到group，group行距离顶部offset。
+	 * 扁平位置从索引里查，O(log n)；中间经过的group不会绑定到header，
+	 * 只在目的地绑定一次
 	 */
-	private View pinTouchedView;
+	public void scrollToGroup(int groupPosition, int offset) {
+		if (mAdapter == null || groupPosition < 0
+				|| groupPosition >= mAdapter.getGroupCount()) {
+			return;
+		}
+		// 停下正在进行的fling，推迟的绑定也不要了
+		smoothScrollBy(0, 0);
+		cancelDeferredBind();
+		isFlingThrottled = false;
+		setSelectionFromTop(getFlatPositionOfGroup(groupPosition), offset);
+	}
 
 	/**
-	 * 判断headerView是否被点击
+	 * 当前悬停的group所在的分段，没有设置分段索引返回-1
 	 */
-	private boolean isActionDown = false;
+	public int getCurrentSection() {
+		if (mSectionIndexer == null) {
+			return -1;
+		}
+		int group = getGroupAtFlatPosition(getFirstVisiblePosition());
+		return group >= 0 ? mSectionIndexer.getSectionForPosition(group) : -1;
+	}
 
-	protected boolean isHeaderGroupClicked = true;
+	public void setOnHeaderPrefetchListener(OnHeaderPrefetchListener listener,
+			Executor executor) {
+		mPrefetchListener = listener;
+		mPrefetchExecutor = executor;
+		clearHeaderPrefetch();
+	}
 
-	public PinnedHeaderExpandableListView(Context context) {
-		super(context);
-		initView(context);
+	private void clearHeaderPrefetch() {
+		mPrefetchGeneration++;
+		mPrefetchGroup = INVALID_POSITION;
+		isPrefetchReady = false;
+		mPrefetchData = null;
 	}
 
-	public PinnedHeaderExpandableListView(Context context, AttributeSet attrs) {
-		super(context, attrs);
-		initView(context);
+	/**
+	 * 顶撞开始时调用，同一个group只预取一次
+	 */
+	private void prefetchHeader(final int groupPosition) {
+		if (groupPosition == mPrefetchGroup && mPrefetchDataVersion == mDataVersion) {
+			return;
+		}
+		clearHeaderPrefetch();
+		mPrefetchGroup = groupPosition;
+		mPrefetchDataVersion = mDataVersion;
+		final int generation = mPrefetchGeneration;
+		final OnHeaderPrefetchListener listener = mPrefetchListener;
+		mPrefetchExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Object result = null;
+				boolean ok = false;
+				try {
+					result = listener.prefetchPinnedHeader(groupPosition);
+					ok = true;
+				} catch (RuntimeException e) {
+					Log.w(TAG, "prefetch header of group " + groupPosition + " failed", e);
+				}
+				if (!ok) {
+					return;
+				}
+				final Object data = result;
+				post(new Runnable() {
+					@Override
+					public void run() {
+						if (generation == mPrefetchGeneration) {
+							mPrefetchData = data;
+							isPrefetchReady = true;
+						}
+					}
+				});
+			}
+		});
 	}
 
-	public PinnedHeaderExpandableListView(Context context, AttributeSet attrs,
-			int defStyle) {
-		super(context, attrs, defStyle);
-		initView(context);
+	public void setJankStats(HeaderJankStats stats) {
+		mJankStats = stats;
 	}
 
-	private void initView(Context context) {
-		setFadingEdgeLength(0);
-		setOnScrollListener(this);
+	public HeaderJankStats getJankStats() {
+		return mJankStats;
+	}
+
+	public void setPagedChildLoader(PagedChildLoader<?> loader) {
+		mChildLoader = loader;
+	}
+
+	public PagedChildLoader<?> getPagedChildLoader() {
+		return mChildLoader;
+	}
+
+	/**
+	 * 最后一个可见的child快到已加载的末尾时加载下一页
+	 */
+	private void prefetchChildren(int firstVisibleItem, int visibleItemCount) {
+		final int lastVisiblePos = firstVisibleItem + visibleItemCount - 1;
+		final int group = getGroupAtFlatPosition(lastVisiblePos);
+		if (group < 0) {
+			return;
+		}
+		final int child = lastVisiblePos - getFlatPositionOfGroup(group) - 1;
+		if (child >= 0) {
+			mChildLoader.onChildShown(group, child, mAdapter.getChildrenCount(group));
+		}
 	}
 
 	@Override
@@ -93,19 +1192,39 @@ public class PinnedHeaderExpandableListView extends ExpandableListView
 
 	public void setOnHeaderUpdateListener(OnHeaderUpdateListener listener) {
 		mHeaderUpdateListener = listener;
+		mHeaderCache.clear();
+		mHeader = null;
+		pinTouchedView = null;
+		mHeaderHitIndex.clear();
+		isHeaderSnapshotDirty = true;
 		if (listener == null) {
 			pinHeaderView = null;
 			pinHeaderWidth = pinHeaderHeight = 0;
 			return;
 		}
 
-		// 这行代码很关键，告诉我们 headerView来自哪
-		pinHeaderView = listener.getPinnedHeader();
-
 		int firstVisiblePos = getFirstVisiblePosition();
-		int firstVisibleGroupPos = getPackedPositionGroup(getExpandableListPosition(firstVisiblePos));
+		int firstVisibleGroupPos = getGroupAtFlatPosition(firstVisiblePos);
+		// 这行代码很关键，告诉我们 headerView来自哪
+		switchHeader(getHeaderType(firstVisibleGroupPos));
 		listener.updatePinnedHeader(pinHeaderView, firstVisibleGroupPos);
+		mHeaderRebindCount++;
+		mBoundGroup = firstVisibleGroupPos;
+		mBoundDataVersion = mDataVersion;
+
+		requestLayout();
+		postInvalidate();
+	}
 
+	public void setOnSubHeaderUpdateListener(OnSubHeaderUpdateListener listener) {
+		mSubHeaderUpdateListener = listener;
+		mSubHeaderPositions.clear();
+		mBoundSubGroup = INVALID_POSITION;
+		mBoundSubChild = INVALID_POSITION;
+		isSubHeaderVisible = false;
+		isSubHeaderActionDown = false;
+		pinSubHeaderView = listener != null ? listener.getPinnedSubHeader() : null;
+		pinSubHeaderWidth = pinSubHeaderHeight = 0;
 		requestLayout();
 		postInvalidate();
 	}
@@ -113,12 +1232,97 @@ public class PinnedHeaderExpandableListView extends ExpandableListView
 	@Override
 	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
 		super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+		mWidthMeasureSpec = widthMeasureSpec;
+		mHeightMeasureSpec = heightMeasureSpec;
+		hasMeasureSpec = true;
+		if (pinSubHeaderView != null) {
+			measureSubHeader();
+		}
 		if (pinHeaderView == null) {
 			return;
 		}
-		measureChild(pinHeaderView, widthMeasureSpec, heightMeasureSpec);
-		pinHeaderWidth = pinHeaderView.getMeasuredWidth();
-		pinHeaderHeight = pinHeaderView.getMeasuredHeight();
+		measureHeader();
+	}
+
+	private void measureSubHeader() {
+		final HeaderJankStats stats = mJankStats;
+		final long start = stats != null ? stats.begin() : 0;
+		measureChild(pinSubHeaderView, mWidthMeasureSpec, mHeightMeasureSpec);
+		if (stats != null) {
+			stats.end(HeaderJankStats.PHASE_MEASURE, start);
+		}
+		pinSubHeaderWidth = pinSubHeaderView.getMeasuredWidth();
+		pinSubHeaderHeight = pinSubHeaderView.getMeasuredHeight();
+	}
+
+	/**
+	 * measure当前的header，MeasureSpec没变并且header没有requestLayout时直接用上次的结果
+	 */
+	private void measureHeader() {
+		final HeaderHolder holder = mHeader;
+		if (!holder.isMeasured || holder.widthMeasureSpec != mWidthMeasureSpec
+				|| holder.heightMeasureSpec != mHeightMeasureSpec
+				|| holder.view.isLayoutRequested()) {
+			final HeaderJankStats stats = mJankStats;
+			final long start = stats != null ? stats.begin() : 0;
+			measureChild(holder.view, mWidthMeasureSpec, mHeightMeasureSpec);
+			if (stats != null) {
+				stats.end(HeaderJankStats.PHASE_MEASURE, start);
+			}
+			holder.width = holder.view.getMeasuredWidth();
+			holder.height = holder.view.getMeasuredHeight();
+			holder.widthMeasureSpec = mWidthMeasureSpec;
+			holder.heightMeasureSpec = mHeightMeasureSpec;
+			holder.isMeasured = true;
+		}
+		pinHeaderWidth = holder.width;
+		pinHeaderHeight = holder.height;
+	}
+
+	private int getHeaderType(int groupPosition) {
+		if (mHeaderUpdateListener instanceof OnTypedHeaderUpdateListener
+				&& groupPosition >= 0) {
+			return ((OnTypedHeaderUpdateListener) mHeaderUpdateListener)
+					.getPinnedHeaderType(groupPosition);
+		}
+		// 普通的listener只有一种header；顶端不是group时沿用当前的header
+		return mHeader != null ? mHeaderType : 0;
+	}
+
+	/**
+	 * 换成type类型的header，没有创建过才去创建
+	 */
+	private void switchHeader(int type) {
+		if (mHeader != null && type == mHeaderType) {
+			return;
+		}
+		HeaderHolder holder = mHeaderCache.get(type);
+		if (holder == null) {
+			View view;
+			if (mHeaderUpdateListener instanceof OnTypedHeaderUpdateListener) {
+				view = ((OnTypedHeaderUpdateListener) mHeaderUpdateListener)
+						.createPinnedHeader(type);
+			} else {
+				view = mHeaderUpdateListener.getPinnedHeader();
+			}
+			holder = new HeaderHolder(view);
+			mHeaderCache.put(type, holder);
+		}
+		if (pinHeaderView != null) {
+			mHeaderDamage.union(pinHeaderView.getLeft(), pinHeaderView.getTop(),
+					pinHeaderView.getRight(), pinHeaderView.getBottom());
+		}
+		mHeader = holder;
+		mHeaderType = type;
+		pinHeaderView = holder.view;
+		pinTouchedView = null;
+		mHeaderHitIndex.invalidate();
+		isHeaderSnapshotDirty = true;
+		if (hasMeasureSpec) {
+			measureHeader();
+		}
+		// 新的header还没有放到正确的位置
+		mHeaderTop = Integer.MIN_VALUE;
 	}
 
 	@Override
@@ -127,23 +1331,200 @@ public class PinnedHeaderExpandableListView extends ExpandableListView
 		if (pinHeaderView == null) {
 			return;
 		}
-		int delta = pinHeaderView.getTop();
-		pinHeaderView.layout(0, delta, pinHeaderWidth, pinHeaderHeight + delta);
+		layoutHeader(pinHeaderView.getTop());
+		if (isSubHeaderVisible) {
+			layoutSubHeader(pinSubHeaderView.getTop());
+		}
+		invalidateHeaderDamage();
+	}
+
+	/**
+	 * 把header放到top的位置，同时记下新旧两个位置
+	 */
+	private void layoutHeader(int top) {
+		final View header = pinHeaderView;
+		mHeaderDamage.union(header.getLeft(), header.getTop(), header.getRight(),
+				header.getBottom());
+		if (header.isLayoutRequested() || header.getWidth() != pinHeaderWidth
+				|| header.getHeight() != pinHeaderHeight) {
+			// 子控件的位置会变
+			mHeaderHitIndex.invalidate();
+		}
+		header.layout(0, top, pinHeaderWidth, pinHeaderHeight + top);
+		mHeaderTop = top;
+		mHeaderDamage.union(0, top, pinHeaderWidth, pinHeaderHeight + top);
+	}
+
+	private void layoutSubHeader(int top) {
+		final View header = pinSubHeaderView;
+		if (isSubHeaderVisible) {
+			mHeaderDamage.union(header.getLeft(), header.getTop(), header.getRight(),
+					header.getBottom());
+		}
+		header.layout(0, top, pinSubHeaderWidth, pinSubHeaderHeight + top);
+		mSubHeaderTop = top;
+		mHeaderDamage.union(0, top, pinSubHeaderWidth, pinSubHeaderHeight + top);
+	}
+
+	private void invalidateHeaderDamage() {
+		if (!mHeaderDamage.isEmpty()) {
+			invalidate(mHeaderDamage);
+			mHeaderDamage.setEmpty();
+		}
+	}
+
+	/**
+	 * header内容变了但位置没变
+	 */
+	private void invalidateHeader() {
+		final View header = pinHeaderView;
+		mHeaderDamage.union(header.getLeft(), header.getTop(), header.getRight(),
+				header.getBottom());
+		invalidateHeaderDamage();
 	}
 
 	@Override
 	protected void dispatchDraw(Canvas canvas) {
 		super.dispatchDraw(canvas);
+		if (!isHeaderDecoration) {
+			drawPinnedHeaders(canvas);
+		}
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		super.draw(canvas);
+		if (isHeaderDecoration) {
+			drawPinnedHeaders(canvas);
+		}
+	}
+
+	private void drawPinnedHeaders(Canvas canvas) {
+		final HeaderJankStats stats = mJankStats;
+		final long start = stats != null ? stats.begin() : 0;
+		// 子header在group header下面，被顶上去时让group header盖住它
+		if (isSubHeaderVisible) {
+			drawChild(canvas, pinSubHeaderView, getDrawingTime());
+		}
+		if (pinHeaderView != null) {
+			if (isHeaderSnapshotEnabled) {
+				drawHeaderSnapshot(canvas);
+			} else {
+				drawChild(canvas, pinHeaderView, getDrawingTime());
+			}
+		}
+		if (stats != null) {
+			stats.end(HeaderJankStats.PHASE_DRAW, start);
+			stats.endFrame();
+		}
+	}
+
+	/**
+	 * 打开后header的内容只在重新绑定、被点击或者大小变化后重画一次，
+	 * 其余的帧只是把缓存的bitmap画到header当前的位置。
+	 * header没有加到列表里，子控件invalidate()传不到这里，
+	 * 在updatePinnedHeader/applyPinnedHeader以外修改header必须调用invalidateHeaderSnapshot()。
+	 * header里有动画的话不要打开
+	 */
+	public void setHeaderSnapshotEnabled(boolean enabled) {
+		if (isHeaderSnapshotEnabled == enabled) {
+			return;
+		}
+		isHeaderSnapshotEnabled = enabled;
+		if (!enabled) {
+			releaseHeaderSnapshot();
+		}
+		invalidateHeaderSnapshot();
+	}
+
+	public boolean isHeaderSnapshotEnabled() {
+		return isHeaderSnapshotEnabled;
+	}
+
+	/**
+	 * header的内容在updatePinnedHeader/applyPinnedHeader以外被修改后必须调用，
+	 * 下一帧重新生成快照，否则一直画旧的内容直到下次重新绑定
+	 */
+	public void invalidateHeaderSnapshot() {
+		isHeaderSnapshotDirty = true;
 		if (pinHeaderView != null) {
-			drawChild(canvas, pinHeaderView, getDrawingTime());
+			invalidateHeader();
+		}
+	}
+
+	private void drawHeaderSnapshot(Canvas canvas) {
+		final int width = pinHeaderWidth;
+		final int height = pinHeaderHeight;
+		if (width <= 0 || height <= 0) {
+			return;
 		}
+		Bitmap snapshot = mHeaderSnapshot;
+		if (snapshot == null || snapshot.getWidth() != width
+				|| snapshot.getHeight() != height) {
+			releaseHeaderSnapshot();
+			snapshot = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			mHeaderSnapshot = snapshot;
+			mHeaderSnapshotCanvas = new Canvas(snapshot);
+			isHeaderSnapshotDirty = true;
+		}
+		if (isHeaderSnapshotDirty) {
+			mHeaderSnapshotCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+			pinHeaderView.draw(mHeaderSnapshotCanvas);
+			isHeaderSnapshotDirty = false;
+		}
+		if (mHeaderSnapshotPaint == null) {
+			mHeaderSnapshotPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+		}
+		canvas.drawBitmap(snapshot, pinHeaderView.getLeft(), pinHeaderView.getTop(),
+				mHeaderSnapshotPaint);
+	}
+
+	private void releaseHeaderSnapshot() {
+		if (mHeaderSnapshot != null) {
+			mHeaderSnapshot.recycle();
+			mHeaderSnapshot = null;
+			mHeaderSnapshotCanvas = null;
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		// 父类会清空RecycleBin，里面的View先放进池里给别的列表用
+		recycleRowsToPool(false);
+		super.onDetachedFromWindow();
+		cancelDeferredBind();
+		stopIdlePrefetch();
+		releaseHeaderSnapshot();
 	}
 
 	@Override
 	public boolean dispatchTouchEvent(MotionEvent ev) {
 		int x = (int) ev.getX();
 		int y = (int) ev.getY();
-		int pos = pointToPosition(x, y);
+		final int action = ev.getAction();
+
+		// 一次按下只对应一次抬起或取消，不管落在哪里都清掉
+		final boolean subHeaderDown = isSubHeaderActionDown;
+		if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_UP
+				|| action == MotionEvent.ACTION_CANCEL) {
+			isSubHeaderActionDown = false;
+		}
+
+		// 子header上的事件也截取，不让下面的列表响应
+		if (isSubHeaderVisible && y >= pinSubHeaderView.getTop()
+				&& y <= pinSubHeaderView.getBottom()
+				&& (pinHeaderView == null || y > pinHeaderView.getBottom())) {
+			if (action == MotionEvent.ACTION_DOWN) {
+				isSubHeaderActionDown = true;
+			} else if (action == MotionEvent.ACTION_UP && subHeaderDown
+					&& pinSubHeaderView.isClickable()) {
+				pinSubHeaderView.performClick();
+				mHeaderDamage.union(pinSubHeaderView.getLeft(), pinSubHeaderView.getTop(),
+						pinSubHeaderView.getRight(), pinSubHeaderView.getBottom());
+				invalidateHeaderDamage();
+			}
+			return true;
+		}
 
 		// 如果滑动 header, 触摸事件被截取，列表不移动
 		if (pinHeaderView != null && y >= pinHeaderView.getTop()
@@ -152,21 +1533,25 @@ public class PinnedHeaderExpandableListView extends ExpandableListView
 			if (ev.getAction() == MotionEvent.ACTION_DOWN) {
 
 				// 获取点击的对象：是子控件 or header整体
-				pinTouchedView = getTouchTarget(pinHeaderView, x, y);
+				pinTouchedView = getTouchTarget(x, y);
 				isActionDown = true;
+				isHeaderSnapshotDirty = true;
 
 			} else if (ev.getAction() == MotionEvent.ACTION_UP) {
 
-				View touchTarget = getTouchTarget(pinHeaderView, x, y);
+				View touchTarget = getTouchTarget(x, y);
 				
 				if (touchTarget == pinTouchedView && pinTouchedView.isClickable()) {
 					//优先处理header中子控件的点击事件
 					pinTouchedView.performClick();
-					invalidate(new Rect(0, 0, pinHeaderWidth, pinHeaderHeight));
+					isHeaderSnapshotDirty = true;
+					invalidateHeader();
 					
 				} else if (isHeaderGroupClicked) {
 					//处理header的点击
-					int groupPosition = getPackedPositionGroup(getExpandableListPosition(pos));
+					// 只有这里用得到，不用每个事件都算一次
+					int pos = pointToPosition(x, y);
+					int groupPosition = getGroupAtFlatPosition(pos);
 					if (groupPosition != INVALID_POSITION
 							&& isActionDown) {
 						if (isGroupExpanded(groupPosition)) {
@@ -184,48 +1569,18 @@ public class PinnedHeaderExpandableListView extends ExpandableListView
 	}
 
 	/**
-	 * 这个地方是判断header的点击事件的，
-	 * 尽管我认为作者费劲费神，写的事倍功半，
-	 * 但是还是有可以借鉴的地方
+	 * 判断点击的是header里的哪个子控件，找不到可点击的子控件就是header整体
 	 */
-	private View getTouchTarget(View view, int x, int y) {
-		if (!(view instanceof ViewGroup)) {
-			return view;
-		}
-
-		ViewGroup parent = (ViewGroup) view;
-		int childrenCount = parent.getChildCount();
-		
-		//我认为这个Boolean多此一举
-		final boolean customOrder = isChildrenDrawingOrderEnabled();
-		View target = null;
-		for (int i = childrenCount - 1; i >= 0; i--) {
-			final int childIndex = customOrder ? getChildDrawingOrder(
-					childrenCount, i) : i;
-			final View child = parent.getChildAt(childIndex);
-			if (isTouchPointInView(child, x, y)) {
-				target = child;
-				break;
-			}
-		}
-		if (target == null) {
-			target = parent;
-		}
-
-		return target;
-	}
-
-	private boolean isTouchPointInView(View view, int x, int y) {
-		if (view.isClickable() && y >= view.getTop() && y <= view.getBottom()
-				&& x >= view.getLeft() && x <= view.getRight()) {
-			return true;
-		}
-		return false;
+	private View getTouchTarget(int x, int y) {
+		return mHeaderHitIndex.findTarget(pinHeaderView, x - pinHeaderView.getLeft(),
+				y - pinHeaderView.getTop());
 	}
 
 	public void requestRefreshHeader() {
+		// 外部要求刷新，即使group没变也重新绑定一次
+		mBoundGroup = INVALID_POSITION;
+		mBoundSubGroup = INVALID_POSITION;
 		refreshHeader();
-		invalidate(new Rect(0, 0, pinHeaderWidth, pinHeaderHeight));
 	}
 
 	/**
@@ -235,41 +1590,282 @@ public class PinnedHeaderExpandableListView extends ExpandableListView
 		if (pinHeaderView == null) {
 			return;
 		}
+		final HeaderJankStats stats = mJankStats;
+		final long start = stats != null ? stats.begin() : 0;
+		updateHeader();
+		if (stats != null) {
+			stats.end(HeaderJankStats.PHASE_REFRESH, start);
+		}
+	}
+
+	private void updateHeader() {
+		mHeaderRefreshCount++;
 		int firstVisiblePos = getFirstVisiblePosition();
 		int pos = firstVisiblePos + 1;
-		int firstVisibleGroupPos = getPackedPositionGroup(getExpandableListPosition(firstVisiblePos));
-		int group = getPackedPositionGroup(getExpandableListPosition(pos));
+		int firstVisibleGroupPos = getGroupAtFlatPosition(firstVisiblePos);
+		int group = getGroupAtFlatPosition(pos);
+
+		// 顶端的group或者数据变了才重新绑定，绑定后内容变了才重新measure
+		if (firstVisibleGroupPos != mBoundGroup || mDataVersion != mBoundDataVersion) {
+			if (shouldDeferBind()) {
+				deferBind();
+			} else {
+				bindHeader(firstVisibleGroupPos);
+			}
+		}
 
+		int top = 0;
 		if (group == firstVisibleGroupPos + 1) {
 			// 如果顶端是两个GroupView相邻
 			View view = getChildAt(1);
-			if (view == null) {
-				return;
-			}
-			if (view.getTop() <= pinHeaderHeight) {
+			if (view != null && view.getTop() <= pinHeaderHeight) {
 				//如果发生了两个GroupView的顶撞，则
-				
-				int delta = pinHeaderHeight - view.getTop();
-				pinHeaderView.layout(0, -delta, pinHeaderWidth, pinHeaderHeight
-						- delta);
-			}
-			/*else {
-				// 其实这个处理完全没有必要，所以去掉了
-				// mHeaderView.layout(0, 0, mHeaderWidth, mHeaderHeight);
-			}*/
+				top = view.getTop() - pinHeaderHeight;
+				if (mPrefetchListener != null) {
+					prefetchHeader(group);
+				}
+				// 下一个group马上就要悬停了，先加载它的第一页
+				if (mChildLoader != null && mExpandedGroups.get(group)) {
+					mChildLoader.prefetch(group, 0);
+				}
+			}
+		}
+		// 只有被顶上去的过程中top才会变，其余时候不用重新layout
+		if (top != mHeaderTop) {
+			layoutHeader(top);
+		}
+		refreshSubHeader(firstVisiblePos, firstVisibleGroupPos);
+		invalidateHeaderDamage();
+	}
+
+	/**
+	 * 子header的悬停：二分查找当前所在的分段，被下一个分段或者下一个group顶上去
+	 */
+	private void refreshSubHeader(int firstVisiblePos, int groupPosition) {
+		if (pinSubHeaderView == null) {
+			return;
+		}
+		int[] starts = NO_SUB_HEADERS;
+		int section = -1;
+		int groupFlatPos = 0;
+		// groupPosition是从索引里查出来的，索引已经是最新的。
+		// 有child的展开group大小才大于1，不用每帧线性查找isGroupExpanded
+		if (groupPosition >= 0 && mGroupIndex.getGroupSize(groupPosition) > 1) {
+			groupFlatPos = getFlatPositionOfGroup(groupPosition);
+			int child = firstVisiblePos - groupFlatPos - 1;
+			if (child >= 0) {
+				starts = getSubHeaderPositions(groupPosition);
+				section = findSection(starts, child);
+			}
+		}
+		if (section < 0) {
+			// 顶端是group行或者没有分段，不显示子header
+			if (isSubHeaderVisible) {
+				mHeaderDamage.union(pinSubHeaderView.getLeft(), pinSubHeaderView.getTop(),
+						pinSubHeaderView.getRight(), pinSubHeaderView.getBottom());
+				isSubHeaderVisible = false;
+			}
+			return;
+		}
+
+		final int sectionChild = starts[section];
+		if (groupPosition != mBoundSubGroup || sectionChild != mBoundSubChild
+				|| mDataVersion != mBoundSubDataVersion) {
+			if (shouldDeferBind()) {
+				deferBind();
+			} else {
+				bindSubHeader(groupPosition, sectionChild);
+			}
+		}
+
+		final int base = mHeaderTop + pinHeaderHeight;
+		int top = base;
+		int nextFlatPos = getFlatPositionOfGroup(groupPosition + 1);
+		if (section + 1 < starts.length) {
+			nextFlatPos = Math.min(nextFlatPos, groupFlatPos + 1 + starts[section + 1]);
+		}
+		View next = getChildAt(nextFlatPos - firstVisiblePos);
+		if (next != null && next.getTop() < base + pinSubHeaderHeight) {
+			top = next.getTop() - pinSubHeaderHeight;
+		}
+		if (!isSubHeaderVisible || top != mSubHeaderTop) {
+			layoutSubHeader(top);
+			isSubHeaderVisible = true;
+		}
+	}
+
+	private void bindSubHeader(int groupPosition, int childPosition) {
+		mBoundSubGroup = groupPosition;
+		mBoundSubChild = childPosition;
+		mBoundSubDataVersion = mDataVersion;
+		final HeaderJankStats stats = mJankStats;
+		final long start = stats != null ? stats.begin() : 0;
+		mSubHeaderUpdateListener.updatePinnedSubHeader(pinSubHeaderView, groupPosition,
+				childPosition);
+		if (stats != null) {
+			stats.end(HeaderJankStats.PHASE_BIND, start);
+		}
+		if (isSubHeaderVisible) {
+			mHeaderDamage.union(pinSubHeaderView.getLeft(), pinSubHeaderView.getTop(),
+					pinSubHeaderView.getRight(), pinSubHeaderView.getBottom());
+		}
+		if (hasMeasureSpec && pinSubHeaderView.isLayoutRequested()) {
+			measureSubHeader();
+			// 大小可能变了，强制重新layout
+			isSubHeaderVisible = false;
+		}
+	}
+
+	private int[] getSubHeaderPositions(int groupPosition) {
+		if (mSubHeaderPositionsVersion != mDataVersion) {
+			mSubHeaderPositions.clear();
+			mSubHeaderPositionsVersion = mDataVersion;
+		}
+		int[] starts = mSubHeaderPositions.get(groupPosition);
+		if (starts == null) {
+			starts = mSubHeaderUpdateListener.getSubHeaderPositions(groupPosition);
+			if (starts == null) {
+				starts = NO_SUB_HEADERS;
+			}
+			mSubHeaderPositions.put(groupPosition, starts);
+		}
+		return starts;
+	}
+
+	/**
+	 * 不大于child的最后一个分段，没有返回-1
+	 */
+	private static int findSection(int[] starts, int child) {
+		int lo = 0;
+		int hi = starts.length - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] <= child) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * fling中这一帧已经绑定过了就推迟到下一帧
+	 */
+	private boolean shouldDeferBind() {
+		if (!isFlingThrottleEnabled || mScrollState != SCROLL_STATE_FLING) {
+			return false;
+		}
+		final long now = AnimationUtils.currentAnimationTimeMillis();
+		if (now - mLastBindTime >= FRAME_INTERVAL_MS) {
+			mLastBindTime = now;
+			return false;
+		}
+		return true;
+	}
+
+	private void deferBind() {
+		isHeaderBindDeferred = true;
+		isFlingThrottled = true;
+		if (!isDeferredBindPosted) {
+			isDeferredBindPosted = true;
+			postNextFrame(mDeferredBind);
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void postNextFrame(Runnable action) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			postOnAnimation(action);
 		} else {
-			// 如果只有一个GroupView
-			pinHeaderView.layout(0, 0, pinHeaderWidth, pinHeaderHeight);
+			postDelayed(action, FRAME_INTERVAL_MS);
+		}
+	}
+
+	private void cancelDeferredBind() {
+		removeCallbacks(mDeferredBind);
+		isDeferredBindPosted = false;
+		isHeaderBindDeferred = false;
+	}
+
+	/**
+	 * 打开后fling时header只跟着移动，内容每帧最多绑定一次，多出来的绑定推迟到下一帧，
+	 * 停止滚动时再完整绑定一次
+	 */
+	public void setHeaderFlingThrottleEnabled(boolean enabled) {
+		isFlingThrottleEnabled = enabled;
+		if (!enabled && isFlingThrottled) {
+			cancelDeferredBind();
+			isFlingThrottled = false;
+			requestRefreshHeader();
 		}
+	}
+
+	public boolean isHeaderFlingThrottleEnabled() {
+		return isFlingThrottleEnabled;
+	}
 
-		if (mHeaderUpdateListener != null) {
-			mHeaderUpdateListener.updatePinnedHeader(pinHeaderView,
-					firstVisibleGroupPos);
+	private void bindHeader(int groupPosition) {
+		mBoundGroup = groupPosition;
+		mBoundDataVersion = mDataVersion;
+		if (mHeaderUpdateListener == null) {
+			return;
 		}
+		mHeaderRebindCount++;
+		switchHeader(getHeaderType(groupPosition));
+		final HeaderJankStats stats = mJankStats;
+		final long start = stats != null ? stats.begin() : 0;
+		if (isPrefetchReady && groupPosition == mPrefetchGroup
+				&& mPrefetchDataVersion == mDataVersion) {
+			// 数据已经在后台准备好了，这里只是设置上去
+			Object data = mPrefetchData;
+			clearHeaderPrefetch();
+			mPrefetchListener.applyPinnedHeader(pinHeaderView, groupPosition, data);
+		} else {
+			mHeaderUpdateListener.updatePinnedHeader(pinHeaderView, groupPosition);
+		}
+		if (stats != null) {
+			stats.end(HeaderJankStats.PHASE_BIND, start);
+		}
+		isHeaderSnapshotDirty = true;
+		// 绑定时可能改了子控件的clickable
+		mHeaderHitIndex.invalidate();
+		// 内容变了，旧的区域要重画
+		final View header = pinHeaderView;
+		mHeaderDamage.union(header.getLeft(), header.getTop(), header.getRight(),
+				header.getBottom());
+		if (hasMeasureSpec && pinHeaderView.isLayoutRequested()) {
+			measureHeader();
+			// 大小可能变了，强制重新layout
+			mHeaderTop = Integer.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * refreshHeader被调用的次数，基本上就是滚动的帧数
+	 */
+	public long getHeaderRefreshCount() {
+		return mHeaderRefreshCount;
+	}
+
+	/**
+	 * 真正回调updatePinnedHeader的次数，和getHeaderRefreshCount对比就知道省了多少
+	 */
+	public long getHeaderRebindCount() {
+		return mHeaderRebindCount;
 	}
 
 	@Override
 	public void onScrollStateChanged(AbsListView view, int scrollState) {
+		mScrollState = scrollState;
+		if (scrollState == SCROLL_STATE_IDLE && isFlingThrottled) {
+			// fling中跳过了一些绑定，停下来后完整地绑定一次
+			isFlingThrottled = false;
+			cancelDeferredBind();
+			requestRefreshHeader();
+		}
 		if (mScrollListener != null) {
 			mScrollListener.onScrollStateChanged(view, scrollState);
 		}
@@ -279,7 +1875,18 @@ public class PinnedHeaderExpandableListView extends ExpandableListView
 	public void onScroll(AbsListView view, int firstVisibleItem,
 			int visibleItemCount, int totalItemCount) {
 		if (totalItemCount > 0) {
+			final HeaderJankStats stats = mJankStats;
+			final long start = stats != null ? stats.begin() : 0;
 			refreshHeader();
+			if (mChildLoader != null && mAdapter != null) {
+				prefetchChildren(firstVisibleItem, visibleItemCount);
+			}
+			if (mViewPool != null && mRowViewFactory != null) {
+				scheduleIdlePrefetch(firstVisibleItem, visibleItemCount);
+			}
+			if (stats != null) {
+				stats.end(HeaderJankStats.PHASE_SCROLL, start);
+			}
 		}
 		if (mScrollListener != null) {
 			mScrollListener.onScroll(view, firstVisibleItem, visibleItemCount,
@@ -0,0 +1,229 @@
+package com.lian.pinheader.widget.pinheader;
+
+import android.database.DataSetObserver;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ExpandableListAdapter;
+import android.widget.HeterogeneousExpandableList;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * 包在应用的adapter外面，列表没有可复用的View时从SharedViewPool里取一个
+ * 当作convertView交给应用的adapter，其余的调用原样转发。
+ * 同时记下RecycleBin里有哪些行View，列表清空RecycleBin之前把它们还给池
+ */
+final class PooledExpandableListAdapter implements ExpandableListAdapter,
+		HeterogeneousExpandableList {
+
+	/**
+	 * child的类型在池里的key加上这个偏移，和group的类型分开
+	 */
+	static final int CHILD_TYPE_OFFSET = 1 << 16;
+
+	private final ExpandableListAdapter mAdapter;
+	private final SharedViewPool mPool;
+
+	/**
+	 * 每个行View在池里的类型，只在View第一次返回给列表时记一次
+	 */
+	private final WeakHashMap<View, Integer> mViewTypes = new WeakHashMap<View, Integer>();
+	/**
+	 * 进了RecycleBin、还没有被当作convertView拿走的View
+	 */
+	private final ArrayList<View> mScrapViews = new ArrayList<View>();
+
+	PooledExpandableListAdapter(ExpandableListAdapter adapter, SharedViewPool pool) {
+		mAdapter = adapter;
+		mPool = pool;
+	}
+
+	ExpandableListAdapter getWrappedAdapter() {
+		return mAdapter;
+	}
+
+	SharedViewPool getPool() {
+		return mPool;
+	}
+
+	/**
+	 * RecyclerListener回调：View进了RecycleBin
+	 */
+	void onMovedToScrapHeap(View view) {
+		if (mViewTypes.containsKey(view) && !mScrapViews.contains(view)) {
+			mScrapViews.add(view);
+		}
+	}
+
+	/**
+	 * 列表马上要清空RecycleBin，把里面的View放进池里，池满了的类型就丢掉
+	 */
+	void recycleScrapViews() {
+		final ArrayList<View> scrap = mScrapViews;
+		for (int i = scrap.size() - 1; i >= 0; i--) {
+			final View view = scrap.get(i);
+			// 有transient state的View不经过convertView就回到了列表上
+			if (view.getParent() == null) {
+				mPool.put(mViewTypes.get(view), view);
+			}
+		}
+		scrap.clear();
+	}
+
+	private View track(View view, int type) {
+		// 从池里拿的View可能是别的列表或者RowViewFactory创建的，这里也要记下
+		if (view != null && !mViewTypes.containsKey(view)) {
+			mViewTypes.put(view, type);
+		}
+		return view;
+	}
+
+	static int getGroupType(ExpandableListAdapter adapter, int groupPosition) {
+		if (adapter instanceof HeterogeneousExpandableList) {
+			return ((HeterogeneousExpandableList) adapter).getGroupType(groupPosition);
+		}
+		return 0;
+	}
+
+	static int getChildType(ExpandableListAdapter adapter, int groupPosition,
+			int childPosition) {
+		if (adapter instanceof HeterogeneousExpandableList) {
+			return ((HeterogeneousExpandableList) adapter).getChildType(groupPosition,
+					childPosition);
+		}
+		return 0;
+	}
+
+	@Override
+	public View getGroupView(int groupPosition, boolean isExpanded, View convertView,
+			ViewGroup parent) {
+		final int type = getGroupType(mAdapter, groupPosition);
+		if (convertView == null) {
+			convertView = mPool.get(type);
+		} else {
+			mScrapViews.remove(convertView);
+		}
+		return track(mAdapter.getGroupView(groupPosition, isExpanded, convertView, parent),
+				type);
+	}
+
+	@Override
+	public View getChildView(int groupPosition, int childPosition, boolean isLastChild,
+			View convertView, ViewGroup parent) {
+		final int type = CHILD_TYPE_OFFSET + getChildType(mAdapter, groupPosition, childPosition);
+		if (convertView == null) {
+			convertView = mPool.get(type);
+		} else {
+			mScrapViews.remove(convertView);
+		}
+		return track(mAdapter.getChildView(groupPosition, childPosition, isLastChild,
+				convertView, parent), type);
+	}
+
+	@Override
+	public int getGroupType(int groupPosition) {
+		return getGroupType(mAdapter, groupPosition);
+	}
+
+	@Override
+	public int getChildType(int groupPosition, int childPosition) {
+		return getChildType(mAdapter, groupPosition, childPosition);
+	}
+
+	@Override
+	public int getGroupTypeCount() {
+		if (mAdapter instanceof HeterogeneousExpandableList) {
+			return ((HeterogeneousExpandableList) mAdapter).getGroupTypeCount();
+		}
+		return 1;
+	}
+
+	@Override
+	public int getChildTypeCount() {
+		if (mAdapter instanceof HeterogeneousExpandableList) {
+			return ((HeterogeneousExpandableList) mAdapter).getChildTypeCount();
+		}
+		return 1;
+	}
+
+	@Override
+	public void registerDataSetObserver(DataSetObserver observer) {
+		mAdapter.registerDataSetObserver(observer);
+	}
+
+	@Override
+	public void unregisterDataSetObserver(DataSetObserver observer) {
+		mAdapter.unregisterDataSetObserver(observer);
+	}
+
+	@Override
+	public int getGroupCount() {
+		return mAdapter.getGroupCount();
+	}
+
+	@Override
+	public int getChildrenCount(int groupPosition) {
+		return mAdapter.getChildrenCount(groupPosition);
+	}
+
+	@Override
+	public Object getGroup(int groupPosition) {
+		return mAdapter.getGroup(groupPosition);
+	}
+
+	@Override
+	public Object getChild(int groupPosition, int childPosition) {
+		return mAdapter.getChild(groupPosition, childPosition);
+	}
+
+	@Override
+	public long getGroupId(int groupPosition) {
+		return mAdapter.getGroupId(groupPosition);
+	}
+
+	@Override
+	public long getChildId(int groupPosition, int childPosition) {
+		return mAdapter.getChildId(groupPosition, childPosition);
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return mAdapter.hasStableIds();
+	}
+
+	@Override
+	public boolean isChildSelectable(int groupPosition, int childPosition) {
+		return mAdapter.isChildSelectable(groupPosition, childPosition);
+	}
+
+	@Override
+	public boolean areAllItemsEnabled() {
+		return mAdapter.areAllItemsEnabled();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return mAdapter.isEmpty();
+	}
+
+	@Override
+	public void onGroupExpanded(int groupPosition) {
+		mAdapter.onGroupExpanded(groupPosition);
+	}
+
+	@Override
+	public void onGroupCollapsed(int groupPosition) {
+		mAdapter.onGroupCollapsed(groupPosition);
+	}
+
+	@Override
+	public long getCombinedChildId(long groupId, long childId) {
+		return mAdapter.getCombinedChildId(groupId, childId);
+	}
+
+	@Override
+	public long getCombinedGroupId(long groupId) {
+		return mAdapter.getCombinedGroupId(groupId);
+	}
+}
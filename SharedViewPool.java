@@ -0,0 +1,101 @@
+package com.lian.pinheader.widget.pinheader;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * 按类型存放的行View池，可以在多个列表之间共用，类似RecyclerView的RecycledViewPool。
+ * 列表自己的RecycleBin里没有可复用的View时先从这里取，取不到才创建；
+ * 列表空闲时会按滚动方向提前创建View放进来；
+ * 列表换adapter、离开窗口时用不到的行View也会放回来。
+ * 共用同一个池的列表，同一个类型的行布局必须相同。只能在主线程使用。
+ */
+public class SharedViewPool {
+
+	private static final int DEFAULT_MAX_SCRAP = 5;
+
+	private final SparseArray<ArrayList<View>> mScrap = new SparseArray<ArrayList<View>>();
+	private final SparseIntArray mMaxScrap = new SparseIntArray();
+
+	private long mHitCount;
+	private long mMissCount;
+
+	/**
+	 * 取出一个type类型的View，没有返回null
+	 */
+	public View get(int type) {
+		ArrayList<View> scrap = mScrap.get(type);
+		if (scrap == null || scrap.isEmpty()) {
+			mMissCount++;
+			return null;
+		}
+		mHitCount++;
+		return scrap.remove(scrap.size() - 1);
+	}
+
+	/**
+	 * 放回一个View，这个类型已经满了就丢掉
+	 * @return 是否放进去了
+	 */
+	public boolean put(int type, View view) {
+		if (view.getParent() != null) {
+			throw new IllegalArgumentException("view is still attached to a parent");
+		}
+		ArrayList<View> scrap = mScrap.get(type);
+		if (scrap == null) {
+			scrap = new ArrayList<View>();
+			mScrap.put(type, scrap);
+		}
+		if (scrap.size() >= getMaxScrap(type)) {
+			return false;
+		}
+		scrap.add(view);
+		return true;
+	}
+
+	public int getCount(int type) {
+		ArrayList<View> scrap = mScrap.get(type);
+		return scrap != null ? scrap.size() : 0;
+	}
+
+	public void setMaxScrap(int type, int max) {
+		mMaxScrap.put(type, max);
+		ArrayList<View> scrap = mScrap.get(type);
+		while (scrap != null && scrap.size() > max) {
+			scrap.remove(scrap.size() - 1);
+		}
+	}
+
+	public int getMaxScrap(int type) {
+		return mMaxScrap.get(type, DEFAULT_MAX_SCRAP);
+	}
+
+	public void clear() {
+		mScrap.clear();
+	}
+
+	/**
+	 * 从池里取到View的次数
+	 */
+	public long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * 池里没有、只能新建的次数
+	 */
+	public long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * 取View时命中的比例，还没取过返回0
+	 */
+	public float getHitRate() {
+		final long total = mHitCount + mMissCount;
+		return total == 0 ? 0f : (float) mHitCount / total;
+	}
+}
@@ -19,12 +19,18 @@ package android.widget;
 import android.app.INotificationManager;
 import android.app.ITransientNotification;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.PixelFormat;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -33,6 +39,9 @@ import android.view.WindowManagerImpl;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityManager;
 
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executor;
+
 /**
  * A toast is a view containing a quick little message for the user.  The toast class
  * helps you create and show those.
@@ -79,6 +88,22 @@ public class Toast {
     int mDuration;
     View mNextView;
 
+    /**
+     * The pooled view and cached message TextView when this toast was created by
+     * {@link #makeText}, and the view has not been handed out through {@link #getView}.
+     */
+    ToastViewPool.Entry mEntry;
+    CharSequence mText;
+
+    /**
+     * Set while {@link #makeTextAsync} is still laying out the text in the background.
+     * Guarded by this; only ever goes from true to false.
+     */
+    volatile boolean mPrecomputing;
+    boolean mShowPending;
+    /** Bumped when getView() or setView() stop waiting for the background layout. */
+    int mPrecomputeGeneration;
+
     /**
      * Construct an empty Toast object.  You must call {@link #setView} before you
      * can call {@link #show}.
@@ -87,29 +112,174 @@ public class Toast {
      *                 or {@link android.app.Activity} object.
      */
     public Toast(Context context) {
-        mContext = context;
+        mContext = getToastContext(context);
         mTN = new TN();
-        mTN.mY = context.getResources().getDimensionPixelSize(
-                com.android.internal.R.dimen.toast_y_offset);
+        mTN.mY = getDefaultYOffset(mContext.getResources());
+    }
+
+    private static volatile boolean sRetentionSafe;
+
+    /**
+     * Keep toasts from holding on to the Context they are created with.  When enabled, new
+     * toasts use the application context for their resources and for the views made by
+     * {@link #makeText}, so a toast that outlives its Activity, or whose token is still
+     * queued in the notification service, does not keep that Activity alive.  The views
+     * of toasts shown this way are themed from the application.  Views passed to
+     * {@link #setView} are still held as given until the toast is hidden or cancelled.
+     * @hide
+     */
+    public static void setRetentionSafe(boolean retentionSafe) {
+        sRetentionSafe = retentionSafe;
+    }
+
+    /**
+     * Return whether toasts are kept from holding on to their Context.
+     * @see #setRetentionSafe
+     * @hide
+     */
+    public static boolean isRetentionSafe() {
+        return sRetentionSafe;
+    }
+
+    private static Context getToastContext(Context context) {
+        if (sRetentionSafe) {
+            final Context app = context.getApplicationContext();
+            if (app != null) {
+                return app;
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Number of views {@link #prewarm} puts in the pool ahead of the first toast.
+     */
+    private static final int PREWARM_VIEW_COUNT = 2;
+
+    // The last toast_y_offset looked up, and the Resources and configuration it is for.
+    private static final Object sYOffsetLock = new Object();
+    private static WeakReference<Resources> sYOffsetResources;
+    private static final Configuration sYOffsetConfig = new Configuration();
+    private static int sYOffset;
+
+    private static int getDefaultYOffset(Resources res) {
+        synchronized (sYOffsetLock) {
+            if (sYOffsetResources != null && sYOffsetResources.get() == res
+                    && sYOffsetConfig.diff(res.getConfiguration()) == 0) {
+                return sYOffset;
+            }
+            sYOffset = res.getDimensionPixelSize(com.android.internal.R.dimen.toast_y_offset);
+            sYOffsetConfig.setTo(res.getConfiguration());
+            sYOffsetResources = new WeakReference<Resources>(res);
+            return sYOffset;
+        }
+    }
+
+    /**
+     * Do the one-time work behind the first toast of a process on {@code executor}: look up
+     * the notification service, resolve the default offset, set up accessibility and
+     * inflate a couple of views into the pool used by {@link #makeText}.  Call it early,
+     * for example from {@link android.app.Application#onCreate}.
+     *
+     * <p>Views are pooled per theme, and this fills the pool for the theme of
+     * {@code context}.  Called with the application, that pool only serves toasts made with
+     * the application context, or every toast when {@link #setRetentionSafe} is on.
+     * Toasts made with an Activity use the pool of the Activity's theme; fill that one with
+     * {@link #prewarm(Context, int, Executor)}.
+     *
+     * @hide
+     */
+    public static void prewarm(Context context, Executor executor) {
+        final Context toastContext = getToastContext(context);
+        prewarm(toastContext, ToastViewPool.get(toastContext), executor);
+    }
+
+    /**
+     * Like {@link #prewarm(Context, Executor)}, but fill the view pool used by toasts made
+     * with an Activity whose theme is {@code themeResId}, before that Activity exists.
+     * With {@link #setRetentionSafe} on, every toast uses the application's theme and
+     * {@code themeResId} is ignored.
+     *
+     * @hide
+     */
+    public static void prewarm(Context context, int themeResId, Executor executor) {
+        final Context toastContext = getToastContext(context);
+        final Context app = context.getApplicationContext();
+        final ToastViewPool pool = sRetentionSafe || app == null || themeResId == 0
+                ? ToastViewPool.get(toastContext) : ToastViewPool.get(app, themeResId);
+        prewarm(toastContext, pool, executor);
+    }
+
+    private static void prewarm(final Context toastContext, final ToastViewPool pool,
+            Executor executor) {
+        executor.execute(new Runnable() {
+            public void run() {
+                getService();
+                getDefaultYOffset(toastContext.getResources());
+                TN.getAccessibilityManager(toastContext);
+                for (int i = pool.size(); i < PREWARM_VIEW_COUNT; i++) {
+                    // Not owned by any toast: nobody will ever reclaim it.
+                    pool.release(inflateTextView(pool, pool));
+                }
+            }
+        });
     }
     
     /**
      * Show the view for the specified duration.
      */
     public void show() {
+        if (mPrecomputing) {
+            synchronized (this) {
+                if (mPrecomputing) {
+                    // Shown as soon as the text has been laid out.
+                    mShowPending = true;
+                    return;
+                }
+            }
+        }
         if (mNextView == null) {
             throw new RuntimeException("setView must have been called");
         }
+        reclaimView();
 
-        INotificationManager service = getService();
         String pkg = mContext.getPackageName();
         TN tn = mTN;
         tn.mNextView = mNextView;
+        tn.mNextEntry = mEntry;
+        tn.mDuration = mDuration;
+        tn.mCancelled = false;
+        tn.mShowSeq++;
+        if (sMetrics != null) {
+            tn.mEnqueueTime = SystemClock.uptimeMillis();
+        }
 
+        final ToastThrottler throttler = sThrottler;
+        // Only text we set ourselves identifies a toast; a view handed out through
+        // getView() may have been changed behind our back.
+        final CharSequence text = mEntry != null ? mText : null;
+
+        final LocalScheduler scheduler = sLocalScheduler;
+        if (scheduler != null) {
+            if (throttler == null || throttler.shouldForward(pkg, text, mDuration,
+                    SystemClock.uptimeMillis())) {
+                scheduler.enqueue(pkg, tn, mDuration);
+            }
+            return;
+        }
+
+        INotificationManager service = getService();
         try {
-            service.enqueueToast(pkg, tn, mDuration);
+            if (throttler != null) {
+                throttler.enqueue(service, pkg, tn, text, mDuration);
+            } else {
+                service.enqueueToast(pkg, tn, mDuration);
+            }
         } catch (RemoteException e) {
-            // Empty
+            final ToastMetrics metrics = sMetrics;
+            if (metrics != null) {
+                metrics.recordRemoteException(e);
+            }
         }
     }
 
@@ -119,8 +289,29 @@ public class Toast {
      * after the appropriate duration.
      */
     public void cancel() {
-        mTN.hide();
-        // TODO this still needs to cancel the inflight notification if any
+        if (mPrecomputing) {
+            synchronized (this) {
+                mShowPending = false;
+            }
+        }
+        mTN.cancel();
+
+        final LocalScheduler scheduler = sLocalScheduler;
+        if (scheduler != null) {
+            scheduler.cancel(mTN);
+            return;
+        }
+
+        // Take the token out of the service's queue as well, so that it never schedules a
+        // show, a window or a timeout for this toast.
+        try {
+            getService().cancelToast(mContext.getPackageName(), mTN);
+        } catch (RemoteException e) {
+            final ToastMetrics metrics = sMetrics;
+            if (metrics != null) {
+                metrics.recordRemoteException(e);
+            }
+        }
     }
     
     /**
@@ -128,7 +319,17 @@ public class Toast {
      * @see #getView
      */
     public void setView(View view) {
+        final boolean abandoned = abandonPrecompute();
+        if (view != mNextView) {
+            mEntry = null;
+        }
         mNextView = view;
+        if (abandoned && mShowPending) {
+            mShowPending = false;
+            if (view != null) {
+                show();
+            }
+        }
     }
 
     /**
@@ -136,6 +337,24 @@ public class Toast {
      * @see #setView
      */
     public View getView() {
+        final boolean abandoned = abandonPrecompute();
+        if (abandoned) {
+            // The background layout keeps its view; set the text on one of our own.
+            final ToastViewPool.Entry entry = obtainTextView(mContext, mTN);
+            entry.message.setText(mText);
+            mNextView = entry.view;
+            mEntry = entry;
+        }
+        if (mEntry != null) {
+            // The caller may modify the view, so it must never go back into the pool.
+            reclaimView();
+            mEntry.pool.detach(mEntry, mTN);
+            mEntry = null;
+        }
+        if (abandoned && mShowPending) {
+            mShowPending = false;
+            show();
+        }
         return mNextView;
     }
 
@@ -169,6 +388,10 @@ public class Toast {
     public void setMargin(float horizontalMargin, float verticalMargin) {
         mTN.mHorizontalMargin = horizontalMargin;
         mTN.mVerticalMargin = verticalMargin;
+        mTN.mParamsDirty = true;
+        if (mTN.mUpdateInPlace) {
+            mTN.update();
+        }
     }
 
     /**
@@ -194,6 +417,10 @@ public class Toast {
         mTN.mGravity = gravity;
         mTN.mX = xOffset;
         mTN.mY = yOffset;
+        mTN.mParamsDirty = true;
+        if (mTN.mUpdateInPlace) {
+            mTN.update();
+        }
     }
 
      /**
@@ -218,6 +445,32 @@ public class Toast {
     public int getYOffset() {
         return mTN.mY;
     }
+
+    /**
+     * Update a toast that is already on screen instead of replacing it.  When enabled,
+     * {@link #setGravity} and {@link #setMargin} move the visible toast right away.  Text
+     * changed through {@link #setText} always updates the visible view in place, and
+     * calling {@link #show} again for the view on screen keeps its window.  A different view
+     * passed to {@link #setView} still needs a new window.
+     *
+     * <p>Calling show() again only restarts the toast's timeout with
+     * {@link #setLocalScheduling} enabled.  The notification service just updates the
+     * duration of a record it is already showing, so in the default mode a progress toast
+     * that is re-shown every tick still hides when its first duration runs out.
+     * @hide
+     */
+    public void setUpdateInPlace(boolean updateInPlace) {
+        mTN.mUpdateInPlace = updateInPlace;
+    }
+
+    /**
+     * Return whether the toast is updated in place.
+     * @see #setUpdateInPlace
+     * @hide
+     */
+    public boolean getUpdateInPlace() {
+        return mTN.mUpdateInPlace;
+    }
     
     /**
      * Make a standard toast that just contains a text view.
@@ -232,16 +485,75 @@ public class Toast {
     public static Toast makeText(Context context, CharSequence text, int duration) {
         Toast result = new Toast(context);
 
+        ToastViewPool.Entry entry = obtainTextView(result.mContext, result.mTN);
+        entry.message.setText(text);
+
+        result.mNextView = entry.view;
+        result.mEntry = entry;
+        result.mText = text;
+        result.mDuration = duration;
+
+        return result;
+    }
+
+    /**
+     * Return a detached {@code transient_notification} view owned by {@code owner}, taken
+     * from the pool when possible and inflated otherwise.
+     */
+    private static ToastViewPool.Entry obtainTextView(Context context, TN owner) {
+        ToastViewPool pool = ToastViewPool.get(context);
+        ToastViewPool.Entry entry = pool.obtain(owner);
+        if (entry == null) {
+            entry = inflateTextView(pool, owner);
+        }
+        return entry;
+    }
+
+    private static ToastViewPool.Entry inflateTextView(ToastViewPool pool, Object owner) {
         LayoutInflater inflate = (LayoutInflater)
-                context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+                pool.getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         View v = inflate.inflate(com.android.internal.R.layout.transient_notification, null);
         TextView tv = (TextView)v.findViewById(com.android.internal.R.id.message);
-        tv.setText(text);
-        
-        result.mNextView = v;
-        result.mDuration = duration;
+        return new ToastViewPool.Entry(pool, v, tv, owner);
+    }
 
-        return result;
+    /**
+     * Our view goes back into the pool when it is hidden.  Take it back out before using it
+     * again, or build a new one if it has been handed to another toast in the meantime.
+     */
+    private void reclaimView() {
+        final ToastViewPool.Entry entry = mEntry;
+        if (entry == null) {
+            return;
+        }
+        if (entry.pool.reclaim(entry, mTN)) {
+            if (entry.textCleared) {
+                // release() cleared the text when the view was hidden.
+                entry.textCleared = false;
+                entry.message.setText(mText);
+            }
+            return;
+        }
+        ToastViewPool.Entry fresh = obtainTextView(mContext, mTN);
+        fresh.message.setText(mText);
+        mNextView = fresh.view;
+        mEntry = fresh;
+    }
+
+    /**
+     * Return the number of {@link #makeText} calls served from the pool of recycled views.
+     * @hide
+     */
+    public static long getViewPoolHitCount() {
+        return ToastViewPool.getHitCount();
+    }
+
+    /**
+     * Return the number of {@link #makeText} calls that had to inflate a new view.
+     * @hide
+     */
+    public static long getViewPoolMissCount() {
+        return ToastViewPool.getMissCount();
     }
 
     /**
@@ -260,6 +572,141 @@ public class Toast {
         return makeText(context, context.getResources().getText(resId), duration);
     }
 
+    /**
+     * Make a standard toast that just contains a text view, laying out and measuring the
+     * text on {@code executor} instead of the calling thread.  Use this for long or heavily
+     * styled text, so that the first layout does not happen on the UI thread when the toast
+     * is shown.
+     *
+     * <p>The toast can be shown right away; it appears once the text is ready.
+     * {@link #setText} may be called meanwhile.  {@link #getView} and {@link #setView} do
+     * not wait for the layout: they give up on it, and getView() returns a new view with
+     * the text set on the calling thread.
+     *
+     * @param context  The context to use.  Usually your {@link android.app.Application}
+     *                 or {@link android.app.Activity} object.
+     * @param text     The text to show.  Can be formatted text.
+     * @param duration How long to display the message.  Either {@link #LENGTH_SHORT} or
+     *                 {@link #LENGTH_LONG}
+     * @param executor The executor to lay out the text on.
+     *
+     * @hide
+     */
+    public static Toast makeTextAsync(Context context, CharSequence text, int duration,
+            Executor executor) {
+        final Toast result = new Toast(context);
+
+        final ToastViewPool.Entry entry = obtainTextView(result.mContext, result.mTN);
+        result.mNextView = entry.view;
+        result.mEntry = entry;
+        result.mText = text;
+        result.mDuration = duration;
+        result.mPrecomputing = true;
+        final int generation = result.mPrecomputeGeneration;
+
+        executor.execute(new Runnable() {
+            public void run() {
+                result.precompute(result.mContext, entry, generation);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Set and measure the text on the calling thread, then show the toast if {@link #show}
+     * was called meanwhile.  Nothing else touches the view until mPrecomputing is cleared,
+     * and the result is dropped if {@code generation} is no longer current.
+     */
+    void precompute(Context context, ToastViewPool.Entry entry, int generation) {
+        CharSequence text;
+        synchronized (this) {
+            if (generation != mPrecomputeGeneration) {
+                return;
+            }
+            text = mText;
+        }
+        while (true) {
+            entry.message.setText(text);
+            premeasure(context, entry.view);
+            synchronized (this) {
+                if (generation != mPrecomputeGeneration) {
+                    // getView() or setView() moved on without us; the view is garbage.
+                    return;
+                }
+                if (mText == text) {
+                    mPrecomputing = false;
+                    if (mShowPending) {
+                        mShowPending = false;
+                        mTN.mHandler.post(new Runnable() {
+                            public void run() {
+                                show();
+                            }
+                        });
+                    }
+                    return;
+                }
+                // setText() was called while we were busy.
+                text = mText;
+            }
+        }
+    }
+
+    /**
+     * Measure a detached toast view the way ViewRoot measures a WRAP_CONTENT window, so that
+     * the TextView keeps its layout when the window is added.
+     */
+    private static void premeasure(Context context, View view) {
+        final Resources res = context.getResources();
+        final DisplayMetrics metrics = res.getDisplayMetrics();
+        final int width = metrics.widthPixels;
+        final int heightSpec = View.MeasureSpec.makeMeasureSpec(metrics.heightPixels,
+                View.MeasureSpec.AT_MOST);
+
+        // ViewRoot first tries the preferred dialog width, then halfway to the full width.
+        final TypedValue value = new TypedValue();
+        res.getValue(com.android.internal.R.dimen.config_prefDialogWidth, value, true);
+        int baseSize = 0;
+        if (value.type == TypedValue.TYPE_DIMENSION) {
+            baseSize = (int) value.getDimension(metrics);
+        }
+        if (baseSize != 0 && width > baseSize) {
+            view.measure(View.MeasureSpec.makeMeasureSpec(baseSize, View.MeasureSpec.AT_MOST),
+                    heightSpec);
+            if ((view.getMeasuredWidthAndState() & View.MEASURED_STATE_TOO_SMALL) == 0) {
+                return;
+            }
+            baseSize = (baseSize + width) / 2;
+            view.measure(View.MeasureSpec.makeMeasureSpec(baseSize, View.MeasureSpec.AT_MOST),
+                    heightSpec);
+            if ((view.getMeasuredWidthAndState() & View.MEASURED_STATE_TOO_SMALL) == 0) {
+                return;
+            }
+        }
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.AT_MOST),
+                heightSpec);
+    }
+
+    /**
+     * Stop waiting for {@link #makeTextAsync}, leaving the view it is laying out to its
+     * worker.  Any {@link #show} that was waiting for the text is left in mShowPending.
+     *
+     * @return true if a layout was still running.
+     */
+    private boolean abandonPrecompute() {
+        if (!mPrecomputing) {
+            return false;
+        }
+        synchronized (this) {
+            if (!mPrecomputing) {
+                return false;
+            }
+            mPrecomputeGeneration++;
+            mPrecomputing = false;
+        }
+        mEntry = null;
+        return true;
+    }
+
     /**
      * Update the text in a Toast that was previously created using one of the makeText() methods.
      * @param resId The new text for the Toast.
@@ -273,9 +720,24 @@ public class Toast {
      * @param s The new text for the Toast.
      */
     public void setText(CharSequence s) {
+        if (mPrecomputing) {
+            synchronized (this) {
+                if (mPrecomputing) {
+                    // Picked up by precompute() before it finishes.
+                    mText = s;
+                    return;
+                }
+            }
+        }
         if (mNextView == null) {
             throw new RuntimeException("This Toast was not created with Toast.makeText()");
         }
+        if (mEntry != null) {
+            reclaimView();
+            mEntry.message.setText(s);
+            mText = s;
+            return;
+        }
         TextView tv = (TextView) mNextView.findViewById(com.android.internal.R.id.message);
         if (tv == null) {
             throw new RuntimeException("This Toast was not created with Toast.makeText()");
@@ -288,42 +750,214 @@ public class Toast {
     // the proper ordering of these system-wide.
     // =======================================================================================
 
-    private static INotificationManager sService;
+    private static volatile INotificationManager sService;
+    private static volatile ToastThrottler sThrottler;
+    static volatile ToastMetrics sMetrics;
+
+    /**
+     * Record the timing of every toast's enqueue, show, window add and hide into
+     * {@code metrics}, or pass null to stop.  Off by default.
+     * @hide
+     */
+    public static void setMetrics(ToastMetrics metrics) {
+        sMetrics = metrics;
+    }
+
+    /**
+     * Return the metrics installed with {@link #setMetrics}, if any.
+     * @hide
+     */
+    public static ToastMetrics getMetrics() {
+        return sMetrics;
+    }
+
+    /**
+     * Install a filter that coalesces and rate limits toasts before they reach the
+     * notification service, or pass null to send every toast.  Off by default.
+     * @hide
+     */
+    public static void setThrottler(ToastThrottler throttler) {
+        sThrottler = throttler;
+    }
+
+    /**
+     * Return the filter installed with {@link #setThrottler}, if any.
+     * @hide
+     */
+    public static ToastThrottler getThrottler() {
+        return sThrottler;
+    }
 
     static private INotificationManager getService() {
-        if (sService != null) {
+        INotificationManager service = sService;
+        if (service != null) {
+            return service;
+        }
+        synchronized (Toast.class) {
+            if (sService == null) {
+                sService = INotificationManager.Stub.asInterface(
+                        ServiceManager.getService("notification"));
+            }
             return sService;
         }
-        sService = INotificationManager.Stub.asInterface(ServiceManager.getService("notification"));
-        return sService;
     }
 
-    private static class TN extends ITransientNotification.Stub {
-        final Runnable mShow = new Runnable() {
-            public void run() {
-                handleShow();
+    private static volatile LocalScheduler sLocalScheduler;
+
+    /**
+     * Order and time this process's toasts with a local {@link ToastScheduler} on the main
+     * thread instead of the notification service.  Toasts already handed to one side stay
+     * there.  Off by default.
+     * @hide
+     */
+    public static void setLocalScheduling(boolean enabled) {
+        synchronized (Toast.class) {
+            if (enabled && sLocalScheduler == null) {
+                sLocalScheduler = new LocalScheduler();
+            } else if (!enabled) {
+                sLocalScheduler = null;
             }
-        };
+        }
+    }
 
-        final Runnable mHide = new Runnable() {
-            public void run() {
-                handleHide();
-                // Don't do this in handleHide() because it is also invoked by handleShow()
-                mNextView = null;
+    /**
+     * Drives a {@link ToastScheduler} from the main looper, calling {@link TN#show} and
+     * {@link TN#hide} the way the notification service would.
+     */
+    private static final class LocalScheduler extends Handler
+            implements ToastScheduler.Callback<TN> {
+        private static final int MSG_ADVANCE = 1;
+
+        // Guarded by itself.
+        private final ToastScheduler<TN> mScheduler = new ToastScheduler<TN>(this);
+
+        LocalScheduler() {
+            super(Looper.getMainLooper());
+        }
+
+        void enqueue(String pkg, TN tn, int duration) {
+            synchronized (mScheduler) {
+                if (!mScheduler.enqueue(pkg, tn, duration, SystemClock.uptimeMillis())) {
+                    Log.e(TAG, "Package has already posted "
+                            + ToastScheduler.MAX_PACKAGE_TOASTS + " toasts. Not showing more.");
+                    return;
+                }
+                advanceLocked();
             }
-        };
+        }
+
+        void cancel(TN tn) {
+            synchronized (mScheduler) {
+                if (mScheduler.cancel(tn)) {
+                    advanceLocked();
+                }
+            }
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MSG_ADVANCE) {
+                synchronized (mScheduler) {
+                    advanceLocked();
+                }
+            }
+        }
+
+        private void advanceLocked() {
+            final long next = mScheduler.advance(SystemClock.uptimeMillis());
+            removeMessages(MSG_ADVANCE);
+            if (next != ToastScheduler.IDLE) {
+                sendEmptyMessageAtTime(MSG_ADVANCE, next);
+            }
+        }
+
+        public void onShow(TN tn) {
+            tn.show();
+        }
+
+        public void onHide(TN tn) {
+            tn.hide();
+        }
+    }
+
+    /**
+     * One handler per looper runs the show, hide and update requests of every TN created on
+     * that looper.  Requests are pooled Messages carrying the TN, so toasting in steady
+     * state does not allocate handlers or runnables.
+     */
+    private static final class TNHandler extends Handler {
+        static final int SHOW = 0;
+        static final int HIDE = 1;
+        static final int UPDATE = 2;
+
+        private static final ThreadLocal<TNHandler> sHandlers = new ThreadLocal<TNHandler>();
+
+        static TNHandler get() {
+            TNHandler handler = sHandlers.get();
+            if (handler == null) {
+                handler = new TNHandler();
+                sHandlers.set(handler);
+            }
+            return handler;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            final TN tn = (TN) msg.obj;
+            switch (msg.what) {
+                case SHOW:
+                    tn.handleShow();
+                    break;
+                case HIDE:
+                    tn.handleHide();
+                    // Don't do this in handleHide() because it is also invoked by handleShow()
+                    // Nor when Toast.show() set a new view after the hidden record was shown
+                    // or the toast was cancelled.
+                    if (msg.arg1 == tn.mShowSeq) {
+                        tn.mNextView = null;
+                        tn.mNextEntry = null;
+                    }
+                    break;
+                case UPDATE:
+                    tn.handleUpdate();
+                    break;
+            }
+        }
+    }
+
+    private static class TN extends ITransientNotification.Stub {
+        private static final Object sAccessibilityLock = new Object();
+        private static volatile AccessibilityManager sAccessibilityManager;
+        private static volatile boolean sAccessibilityEnabled;
 
         private final WindowManager.LayoutParams mParams = new WindowManager.LayoutParams();
-        final Handler mHandler = new Handler();    
+        final TNHandler mHandler = TNHandler.get();
 
         int mGravity = Gravity.CENTER_HORIZONTAL | Gravity.BOTTOM;
         int mX, mY;
         float mHorizontalMargin;
         float mVerticalMargin;
+        // Set whenever one of the above changes, so that mParams is only rewritten, and an
+        // attached window only relaid out, when something actually changed.
+        volatile boolean mParamsDirty = true;
+        volatile boolean mUpdateInPlace;
+        volatile boolean mCancelled;
+        // Bumped by Toast.show() whenever it sets mNextView.
+        volatile int mShowSeq;
+        // mShowSeq when the record now on screen was shown; its hide carries this.
+        volatile int mShownSeq;
+
+        // Only maintained while Toast.sMetrics is set.
+        int mDuration;
+        volatile long mEnqueueTime;
+        volatile long mShowRequestTime;
+        long mShownTime;
 
        
         View mView;
-        View mNextView;
+        volatile View mNextView;
+        ToastViewPool.Entry mEntry;
+        volatile ToastViewPool.Entry mNextEntry;
         
         WindowManagerImpl mWM;
 
@@ -347,7 +981,21 @@ public class Toast {
          */
         public void show() {
             if (localLOGV) Log.v(TAG, "SHOW: " + this);
-            mHandler.post(mShow);
+            if (mCancelled) {
+                // The service dispatched this before it saw our cancelToast().
+                return;
+            }
+            final ToastMetrics metrics = sMetrics;
+            if (metrics != null) {
+                final long now = SystemClock.uptimeMillis();
+                if (mEnqueueTime != 0) {
+                    metrics.recordEnqueueToShow(now - mEnqueueTime);
+                    mEnqueueTime = 0;
+                }
+                mShowRequestTime = now;
+            }
+            mShownSeq = mShowSeq;
+            mHandler.obtainMessage(TNHandler.SHOW, this).sendToTarget();
         }
 
         /**
@@ -355,43 +1003,136 @@ public class Toast {
          */
         public void hide() {
             if (localLOGV) Log.v(TAG, "HIDE: " + this);
-            mHandler.post(mHide);
+            // This hide belongs to the record that was shown last, not to a show() that may
+            // have enqueued a new record since: cancel() then show() gets the service's hide
+            // for the cancelled record after the new view is already set.
+            mHandler.obtainMessage(TNHandler.HIDE, mShownSeq, 0, this).sendToTarget();
+        }
+
+        /**
+         * drop any show or update that is still pending, and hide
+         */
+        void cancel() {
+            if (localLOGV) Log.v(TAG, "CANCEL: " + this);
+            mCancelled = true;
+            mHandler.removeMessages(TNHandler.SHOW, this);
+            mHandler.removeMessages(TNHandler.UPDATE, this);
+            // The HIDE message lets go of the view, on the thread that shows it.
+            mHandler.obtainMessage(TNHandler.HIDE, mShowSeq, 0, this).sendToTarget();
+        }
+
+        /**
+         * schedule handleUpdate into the right thread
+         */
+        void update() {
+            if (localLOGV) Log.v(TAG, "UPDATE: " + this);
+            mHandler.removeMessages(TNHandler.UPDATE, this);
+            mHandler.obtainMessage(TNHandler.UPDATE, this).sendToTarget();
         }
 
         public void handleShow() {
+            // Toast.show() may set these again from another thread; read them once.
+            final View nextView = mNextView;
+            final ToastViewPool.Entry nextEntry = mNextEntry;
             if (localLOGV) Log.v(TAG, "HANDLE SHOW: " + this + " mView=" + mView
-                    + " mNextView=" + mNextView);
-            if (mView != mNextView) {
+                    + " mNextView=" + nextView);
+            if (nextView == null) {
+                // Hidden or cancelled before we got here.
+                return;
+            }
+            if (mView != nextView) {
                 // remove the old view if necessary
                 handleHide();
-                mView = mNextView;
+                mView = nextView;
+                mEntry = nextEntry;
                 mWM = WindowManagerImpl.getDefault();
-                final int gravity = mGravity;
-                mParams.gravity = gravity;
-                if ((gravity & Gravity.HORIZONTAL_GRAVITY_MASK) == Gravity.FILL_HORIZONTAL) {
-                    mParams.horizontalWeight = 1.0f;
-                }
-                if ((gravity & Gravity.VERTICAL_GRAVITY_MASK) == Gravity.FILL_VERTICAL) {
-                    mParams.verticalWeight = 1.0f;
+                if (mParamsDirty) {
+                    applyLayoutParams();
                 }
-                mParams.x = mX;
-                mParams.y = mY;
-                mParams.verticalMargin = mVerticalMargin;
-                mParams.horizontalMargin = mHorizontalMargin;
                 if (mView.getParent() != null) {
                     if (localLOGV) Log.v(TAG, "REMOVE! " + mView + " in " + this);
                     mWM.removeView(mView);
                 }
                 if (localLOGV) Log.v(TAG, "ADD! " + mView + " in " + this);
-                mWM.addView(mView, mParams);
+                final ToastMetrics metrics = sMetrics;
+                if (metrics != null) {
+                    final long start = System.nanoTime();
+                    mWM.addView(mView, mParams);
+                    metrics.recordAddView(System.nanoTime() - start);
+                    mShownTime = SystemClock.uptimeMillis();
+                    if (mShowRequestTime != 0) {
+                        metrics.recordShowDispatch(mShownTime - mShowRequestTime);
+                        mShowRequestTime = 0;
+                    }
+                } else {
+                    mWM.addView(mView, mParams);
+                }
                 trySendAccessibilityEvent();
             }
         }
 
+        /**
+         * Apply the current gravity, offsets and margins to the window of the view that is
+         * showing, without removing it.
+         */
+        public void handleUpdate() {
+            if (localLOGV) Log.v(TAG, "HANDLE UPDATE: " + this + " mView=" + mView);
+            if (mParamsDirty && mView != null && mView.getParent() != null) {
+                applyLayoutParams();
+                if (localLOGV) Log.v(TAG, "UPDATE! " + mView + " in " + this);
+                mWM.updateViewLayout(mView, mParams);
+            }
+        }
+
+        private void applyLayoutParams() {
+            mParamsDirty = false;
+            final int gravity = mGravity;
+            mParams.gravity = gravity;
+            if ((gravity & Gravity.HORIZONTAL_GRAVITY_MASK) == Gravity.FILL_HORIZONTAL) {
+                mParams.horizontalWeight = 1.0f;
+            } else {
+                mParams.horizontalWeight = 0;
+            }
+            if ((gravity & Gravity.VERTICAL_GRAVITY_MASK) == Gravity.FILL_VERTICAL) {
+                mParams.verticalWeight = 1.0f;
+            } else {
+                mParams.verticalWeight = 0;
+            }
+            mParams.x = mX;
+            mParams.y = mY;
+            mParams.verticalMargin = mVerticalMargin;
+            mParams.horizontalMargin = mHorizontalMargin;
+        }
+
+        /**
+         * Return the accessibility manager, registering once for its state changes so that
+         * every later show only has to read a cached flag.
+         */
+        private static AccessibilityManager getAccessibilityManager(Context context) {
+            final AccessibilityManager cached = sAccessibilityManager;
+            if (cached != null) {
+                return cached;
+            }
+            synchronized (sAccessibilityLock) {
+                if (sAccessibilityManager == null) {
+                    final AccessibilityManager am = AccessibilityManager.getInstance(context);
+                    am.addAccessibilityStateChangeListener(
+                            new AccessibilityManager.AccessibilityStateChangeListener() {
+                        public void onAccessibilityStateChanged(boolean enabled) {
+                            sAccessibilityEnabled = enabled;
+                        }
+                    });
+                    sAccessibilityEnabled = am.isEnabled();
+                    sAccessibilityManager = am;
+                }
+                return sAccessibilityManager;
+            }
+        }
+
         private void trySendAccessibilityEvent() {
             AccessibilityManager accessibilityManager =
-                    AccessibilityManager.getInstance(mView.getContext());
-            if (!accessibilityManager.isEnabled()) {
+                    getAccessibilityManager(mView.getContext());
+            if (!sAccessibilityEnabled) {
                 return;
             }
             // treat toasts as notifications since they are used to
@@ -413,6 +1154,16 @@ public class Toast {
                 if (mView.getParent() != null) {
                     if (localLOGV) Log.v(TAG, "REMOVE! " + mView + " in " + this);
                     mWM.removeView(mView);
+                    final ToastMetrics metrics = sMetrics;
+                    if (metrics != null && mShownTime != 0) {
+                        metrics.recordVisible(SystemClock.uptimeMillis() - mShownTime,
+                                ToastScheduler.getDurationMillis(mDuration));
+                    }
+                }
+                mShownTime = 0;
+                if (mEntry != null) {
+                    mEntry.pool.release(mEntry);
+                    mEntry = null;
                 }
 
                 mView = null;
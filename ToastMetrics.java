@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import android.os.RemoteException;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings of each step of a toast's life, installed with {@link Toast#setMetrics}.
+ *
+ * <p>The default implementation records into lock-free {@link Histogram}s that can be
+ * read or dumped from any thread while toasts are being shown.  Override the
+ * {@code record} methods to send the samples somewhere else.
+ *
+ * @hide
+ */
+public class ToastMetrics {
+    /** Time from {@link Toast#show} until the service asks for the toast to be shown. */
+    public final Histogram enqueueToShowMillis = new Histogram();
+
+    /** Time from the service's show request until the toast's looper handles it. */
+    public final Histogram showDispatchMillis = new Histogram();
+
+    /** Time spent in {@code WindowManager.addView}. */
+    public final Histogram addViewMicros = new Histogram();
+
+    /** Time the toast's window was actually on screen. */
+    public final Histogram visibleMillis = new Histogram();
+
+    /** How much longer than its requested duration a toast stayed on screen. */
+    public final Histogram overstayMillis = new Histogram();
+
+    /** Toasts hidden before their requested duration, usually through cancel. */
+    public final AtomicLong hiddenEarly = new AtomicLong();
+
+    /** RemoteExceptions from the notification service. */
+    public final AtomicLong remoteExceptions = new AtomicLong();
+
+    public void recordEnqueueToShow(long millis) {
+        enqueueToShowMillis.record(millis);
+    }
+
+    public void recordShowDispatch(long millis) {
+        showDispatchMillis.record(millis);
+    }
+
+    public void recordAddView(long nanos) {
+        addViewMicros.record(nanos / 1000);
+    }
+
+    /**
+     * @param visibleMillis How long the window was on screen.
+     * @param requestedMillis How long it should have been, from the toast's duration.
+     */
+    public void recordVisible(long visibleMillis, long requestedMillis) {
+        this.visibleMillis.record(visibleMillis);
+        if (visibleMillis >= requestedMillis) {
+            overstayMillis.record(visibleMillis - requestedMillis);
+        } else {
+            hiddenEarly.incrementAndGet();
+        }
+    }
+
+    public void recordRemoteException(RemoteException e) {
+        remoteExceptions.incrementAndGet();
+    }
+
+    /**
+     * Clear all histograms and counters.
+     */
+    public void reset() {
+        enqueueToShowMillis.reset();
+        showDispatchMillis.reset();
+        addViewMicros.reset();
+        visibleMillis.reset();
+        overstayMillis.reset();
+        hiddenEarly.set(0);
+        remoteExceptions.set(0);
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Toast metrics:");
+        enqueueToShowMillis.dump(pw, "  enqueue->show ms: ");
+        showDispatchMillis.dump(pw, "  show dispatch ms: ");
+        addViewMicros.dump(pw, "  addView us: ");
+        visibleMillis.dump(pw, "  visible ms: ");
+        overstayMillis.dump(pw, "  overstay ms: ");
+        pw.print("  hidden early: "); pw.println(hiddenEarly.get());
+        pw.print("  remote exceptions: "); pw.println(remoteExceptions.get());
+    }
+
+    /**
+     * A histogram of non-negative values with power-of-two buckets: bucket 0 counts zeros
+     * and bucket {@code i} counts values in {@code [2^(i-1), 2^i)}.  Recording is a few
+     * atomic operations and never blocks.
+     */
+    public static final class Histogram {
+        public static final int BUCKET_COUNT = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(bucketFor(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max;
+            while (value > (max = mMax.get())) {
+                if (mMax.compareAndSet(max, value)) {
+                    break;
+                }
+            }
+        }
+
+        static int bucketFor(long value) {
+            return 64 - Long.numberOfLeadingZeros(value);
+        }
+
+        /**
+         * Return the lower bound of the values counted in the given bucket.
+         */
+        public static long bucketLowerBound(int bucket) {
+            return bucket == 0 ? 0 : 1L << (bucket - 1);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getSum() {
+            return mSum.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * Copy the bucket counts.  Samples recorded concurrently may or may not be included.
+         */
+        public long[] getBuckets() {
+            final long[] buckets = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = mBuckets.get(i);
+            }
+            return buckets;
+        }
+
+        /**
+         * Return an upper bound of the value below which the given fraction of samples fall.
+         */
+        public long getPercentile(double fraction) {
+            final long[] buckets = getBuckets();
+            long total = 0;
+            for (long b : buckets) {
+                total += b;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return i == 0 ? 0 : Math.min(mMax.get(), (1L << i) - 1);
+                }
+            }
+            return mMax.get();
+        }
+
+        public void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        void dump(PrintWriter pw, String prefix) {
+            final long count = getCount();
+            pw.print(prefix);
+            pw.print("count="); pw.print(count);
+            if (count > 0) {
+                pw.print(" mean="); pw.print(getSum() / count);
+                pw.print(" p50<="); pw.print(getPercentile(0.5));
+                pw.print(" p90<="); pw.print(getPercentile(0.9));
+                pw.print(" p99<="); pw.print(getPercentile(0.99));
+                pw.print(" max="); pw.print(getMax());
+            }
+            pw.println();
+        }
+    }
+}
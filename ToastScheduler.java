@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Decides which toast is shown when, and for how long.  This is the ordering the
+ * notification service applies to toasts, pulled out into plain Java so that it can run
+ * and be tested outside of a device.
+ *
+ * <p>One toast is shown at a time.  Waiting toasts are served in start-time fair order:
+ * each toast is tagged one slot after the later of the last toast shown and the previous
+ * toast of its own package, so a package that floods the queue cannot delay other
+ * packages by more than one toast each.  Toasts of a single package keep their order.
+ * Enqueue and cancel are O(log n) in the number of waiting toasts.
+ *
+ * <p>The scheduler does not keep time itself: the caller passes the current time in,
+ * and is told through {@link #advance} when it should call back.  It is not thread safe.
+ *
+ * @param <T> The token identifying a toast, such as its {@code ITransientNotification}.
+ * @hide
+ */
+public class ToastScheduler<T> {
+    /** How long a {@link Toast#LENGTH_SHORT} toast is shown. */
+    public static final long SHORT_DURATION_MILLIS = 2000;
+
+    /** How long a {@link Toast#LENGTH_LONG} toast is shown. */
+    public static final long LONG_DURATION_MILLIS = 3500;
+
+    /** Maximum number of toasts a single package may have queued. */
+    public static final int MAX_PACKAGE_TOASTS = 50;
+
+    // Same value as Toast.LENGTH_LONG; not referenced so this class has no Android deps.
+    private static final int LENGTH_LONG = 1;
+
+    /** Returned by {@link #advance} when there is nothing left to time. */
+    public static final long IDLE = Long.MAX_VALUE;
+
+    /**
+     * Receives the toasts to show and hide, from within {@link #advance} and
+     * {@link #cancel}.
+     */
+    public interface Callback<T> {
+        void onShow(T token);
+
+        void onHide(T token);
+    }
+
+    private static final class Record<T> {
+        final String pkg;
+        final T token;
+        int duration;
+        long tag;
+        long seq;
+
+        Record(String pkg, T token, int duration) {
+            this.pkg = pkg;
+            this.token = token;
+            this.duration = duration;
+        }
+    }
+
+    private static final class PackageState {
+        long lastTag;
+        int count;
+    }
+
+    private static final Comparator<Record<?>> ORDER = new Comparator<Record<?>>() {
+        public int compare(Record<?> a, Record<?> b) {
+            if (a.tag != b.tag) {
+                return a.tag < b.tag ? -1 : 1;
+            }
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    };
+
+    private final Callback<T> mCallback;
+    private final int mMaxPackageToasts;
+    private final TreeSet<Record<?>> mQueue = new TreeSet<Record<?>>(ORDER);
+    private final HashMap<T, Record<T>> mRecords = new HashMap<T, Record<T>>();
+    private final HashMap<String, PackageState> mPackages = new HashMap<String, PackageState>();
+
+    private long mVirtualTime;
+    private long mNextSeq;
+
+    private Record<T> mShowing;
+    private long mHideTime;
+
+    public ToastScheduler(Callback<T> callback) {
+        this(callback, MAX_PACKAGE_TOASTS);
+    }
+
+    /**
+     * @param maxPackageToasts Maximum number of toasts a single package may have queued.
+     */
+    public ToastScheduler(Callback<T> callback, int maxPackageToasts) {
+        mCallback = callback;
+        mMaxPackageToasts = maxPackageToasts;
+    }
+
+    /**
+     * Return how long a toast of the given duration is shown, in milliseconds.
+     */
+    public static long getDurationMillis(int duration) {
+        return duration == LENGTH_LONG ? LONG_DURATION_MILLIS : SHORT_DURATION_MILLIS;
+    }
+
+    /**
+     * Queue a toast.  A token that is already waiting keeps its place and only takes the
+     * new duration; the toast currently shown is extended to the new duration from now.
+     * Call {@link #advance} afterwards to show it if nothing else is.
+     *
+     * @return false if the package already has as many toasts queued as it may,
+     *         {@link #MAX_PACKAGE_TOASTS} unless given to the constructor.
+     */
+    public boolean enqueue(String pkg, T token, int duration, long now) {
+        final Record<T> showing = mShowing;
+        if (showing != null && showing.token.equals(token)) {
+            showing.duration = duration;
+            mHideTime = now + getDurationMillis(duration);
+            return true;
+        }
+        Record<T> r = mRecords.get(token);
+        if (r != null) {
+            r.duration = duration;
+            return true;
+        }
+
+        PackageState ps = mPackages.get(pkg);
+        if (ps == null) {
+            ps = new PackageState();
+            mPackages.put(pkg, ps);
+        } else if (ps.count >= mMaxPackageToasts) {
+            return false;
+        }
+        r = new Record<T>(pkg, token, duration);
+        r.tag = Math.max(mVirtualTime, ps.lastTag) + 1;
+        r.seq = mNextSeq++;
+        ps.lastTag = r.tag;
+        ps.count++;
+        mRecords.put(token, r);
+        mQueue.add(r);
+        return true;
+    }
+
+    /**
+     * Remove a toast, hiding it if it is the one shown.  Call {@link #advance} afterwards
+     * to show the next one.
+     *
+     * @return false if the token was neither shown nor queued.
+     */
+    public boolean cancel(T token) {
+        final Record<T> showing = mShowing;
+        if (showing != null && showing.token.equals(token)) {
+            mShowing = null;
+            mCallback.onHide(token);
+            return true;
+        }
+        final Record<T> r = mRecords.remove(token);
+        if (r == null) {
+            return false;
+        }
+        mQueue.remove(r);
+        release(r);
+        return true;
+    }
+
+    /**
+     * Hide the toast shown if its time is up, and show the next one if nothing is shown.
+     *
+     * @return The time at which {@code advance} has to be called again, or {@link #IDLE}.
+     */
+    public long advance(long now) {
+        if (mShowing != null) {
+            if (now < mHideTime) {
+                return mHideTime;
+            }
+            final T token = mShowing.token;
+            mShowing = null;
+            mCallback.onHide(token);
+        }
+        if (mQueue.isEmpty()) {
+            return IDLE;
+        }
+        @SuppressWarnings("unchecked")
+        final Record<T> next = (Record<T>) mQueue.pollFirst();
+        mRecords.remove(next.token);
+        mVirtualTime = next.tag;
+        release(next);
+        mShowing = next;
+        mHideTime = now + getDurationMillis(next.duration);
+        mCallback.onShow(next.token);
+        return mHideTime;
+    }
+
+    /**
+     * Return the time the toast shown will be hidden, or {@link #IDLE} if none is.
+     */
+    public long getHideTime() {
+        return mShowing != null ? mHideTime : IDLE;
+    }
+
+    /**
+     * Return the token of the toast shown, or null.
+     */
+    public T getShowing() {
+        return mShowing != null ? mShowing.token : null;
+    }
+
+    /**
+     * Return the token that {@link #advance} will show next, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public T peekNext() {
+        return mQueue.isEmpty() ? null : ((Record<T>) mQueue.first()).token;
+    }
+
+    /**
+     * Return the number of toasts waiting, not counting the one shown.
+     */
+    public int size() {
+        return mQueue.size();
+    }
+
+    private void release(Record<T> r) {
+        final PackageState ps = mPackages.get(r.pkg);
+        if (--ps.count == 0) {
+            mPackages.remove(r.pkg);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark for {@link ToastScheduler} that runs on a plain JVM.  It queues 10k toasts
+ * from 100 packages and reports enqueue and cancel throughput and the latency of
+ * {@link ToastScheduler#advance} moving on to the next toast.  Time is a counter that is
+ * passed in to the scheduler, so no toast ever waits for a real timeout.
+ *
+ * <p>Before measuring, it checks that toasts are shown in fair-share order: one toast per
+ * package per round, each package's toasts in the order they were queued, and a late
+ * package waiting for no more than one toast of every other package.  A failed check
+ * throws {@link IllegalStateException}.
+ *
+ * <pre>
+ * javac -d out ToastScheduler.java ToastSchedulerBenchmark.java
+ * java -cp out android.widget.ToastSchedulerBenchmark
+ * </pre>
+ * @hide
+ */
+public class ToastSchedulerBenchmark {
+    private static final int PACKAGES = 100;
+    private static final int TOASTS = 10000;
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 30;
+
+    private final String[] mPackages = new String[PACKAGES];
+    private final Integer[] mTokens = new Integer[TOASTS];
+    private final Integer[] mShuffled;
+
+    private final Recorder mRecorder = new Recorder();
+    private long mNow;
+
+    /**
+     * Records the shows, in order, and counts the hides.
+     */
+    private static final class Recorder implements ToastScheduler.Callback<Integer> {
+        final int[] shown = new int[TOASTS + 1];
+        int shownCount;
+        int hiddenCount;
+
+        public void onShow(Integer token) {
+            shown[shownCount++] = token;
+        }
+
+        public void onHide(Integer token) {
+            hiddenCount++;
+        }
+
+        void reset() {
+            shownCount = 0;
+            hiddenCount = 0;
+        }
+    }
+
+    ToastSchedulerBenchmark() {
+        for (int i = 0; i < PACKAGES; i++) {
+            mPackages[i] = "com.example.app" + i;
+        }
+        for (int i = 0; i < TOASTS; i++) {
+            mTokens[i] = i;
+        }
+        mShuffled = mTokens.clone();
+        final Random random = new Random(42);
+        for (int i = TOASTS - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final Integer t = mShuffled[i];
+            mShuffled[i] = mShuffled[j];
+            mShuffled[j] = t;
+        }
+    }
+
+    public static void main(String[] args) {
+        final ToastSchedulerBenchmark benchmark = new ToastSchedulerBenchmark();
+        benchmark.checkFairShare();
+        benchmark.checkLatePackage();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            benchmark.runRound(null, 0);
+        }
+        final long[] enqueueNanos = new long[ROUNDS];
+        final long[] cancelNanos = new long[ROUNDS];
+        final long[] showNanos = new long[ROUNDS * TOASTS];
+        for (int i = 0; i < ROUNDS; i++) {
+            final long[] round = benchmark.runRound(showNanos, i * TOASTS);
+            enqueueNanos[i] = round[0];
+            cancelNanos[i] = round[1];
+        }
+
+        System.out.println("ToastScheduler: " + TOASTS + " toasts from " + PACKAGES
+                + " packages, " + ROUNDS + " rounds");
+        System.out.printf("enqueue:   %,12.0f ops/s (median round)%n",
+                opsPerSecond(TOASTS, median(enqueueNanos)));
+        System.out.printf("cancel:    %,12.0f ops/s (median round)%n",
+                opsPerSecond(TOASTS, median(cancelNanos)));
+        Arrays.sort(showNanos);
+        System.out.printf("next show: p50 %,d ns, p99 %,d ns, max %,d ns%n",
+                percentile(showNanos, 50), percentile(showNanos, 99),
+                showNanos[showNanos.length - 1]);
+    }
+
+    /**
+     * Time one round: queue every toast, cancel them in random order, then queue them
+     * again and show them all one after the other.
+     *
+     * @param showNanos Receives the latency of each advance to the next toast, unless null.
+     * @param offset Where in {@code showNanos} this round starts.
+     * @return The nanoseconds spent queueing and cancelling.
+     */
+    private long[] runRound(long[] showNanos, int offset) {
+        final ToastScheduler<Integer> scheduler = newScheduler();
+
+        long start = System.nanoTime();
+        enqueueAll(scheduler);
+        final long enqueue = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < TOASTS; i++) {
+            scheduler.cancel(mShuffled[i]);
+        }
+        final long cancel = System.nanoTime() - start;
+        check(scheduler.size() == 0, "cancel left " + scheduler.size() + " toasts queued");
+
+        enqueueAll(scheduler);
+        for (int i = 0; i < TOASTS; i++) {
+            start = System.nanoTime();
+            mNow = scheduler.advance(mNow);
+            final long elapsed = System.nanoTime() - start;
+            if (showNanos != null) {
+                showNanos[offset + i] = elapsed;
+            }
+        }
+        check(mRecorder.shownCount == TOASTS,
+                "showed " + mRecorder.shownCount + " of " + TOASTS + " toasts");
+        return new long[] { enqueue, cancel };
+    }
+
+    /**
+     * Queue toasts package after package, the first package flooding the queue before any
+     * other gets a turn, and check that they are still shown round robin.
+     */
+    private void checkFairShare() {
+        final ToastScheduler<Integer> scheduler = newScheduler();
+        enqueueAll(scheduler);
+        while (scheduler.advance(mNow) != ToastScheduler.IDLE) {
+            mNow = scheduler.getHideTime();
+        }
+        check(mRecorder.shownCount == TOASTS, "showed " + mRecorder.shownCount + " toasts");
+        check(mRecorder.hiddenCount == TOASTS, "hid " + mRecorder.hiddenCount + " toasts");
+
+        final int perPackage = TOASTS / PACKAGES;
+        for (int i = 0; i < TOASTS; i++) {
+            final int token = mRecorder.shown[i];
+            check(packageOf(token) == i % PACKAGES,
+                    "show " + i + " is from package " + packageOf(token));
+            // Within a package, toasts show in the order they were queued.
+            check(token % perPackage == i / PACKAGES, "show " + i + " is toast " + token);
+        }
+    }
+
+    /**
+     * Queue a toast from a new package behind a full queue, and check that it only waits
+     * for one toast of each package.
+     */
+    private void checkLatePackage() {
+        final ToastScheduler<Integer> scheduler = newScheduler();
+        enqueueAll(scheduler);
+        for (int i = 0; i < TOASTS / 20; i++) {
+            mNow = scheduler.advance(mNow);
+        }
+        final Integer late = -1;
+        scheduler.enqueue("com.example.late", late, 0, mNow);
+        final int before = mRecorder.shownCount;
+        while (!late.equals(scheduler.getShowing())) {
+            mNow = scheduler.advance(mNow);
+            check(mNow != ToastScheduler.IDLE, "late package was never shown");
+        }
+        final int waited = mRecorder.shownCount - before - 1;
+        check(waited <= PACKAGES, "late package waited for " + waited + " toasts");
+    }
+
+    private ToastScheduler<Integer> newScheduler() {
+        mRecorder.reset();
+        mNow = 0;
+        return new ToastScheduler<Integer>(mRecorder, TOASTS / PACKAGES);
+    }
+
+    /**
+     * Queue every toast, package by package, alternating short (0) and long (1) durations.
+     */
+    private void enqueueAll(ToastScheduler<Integer> scheduler) {
+        for (int i = 0; i < TOASTS; i++) {
+            final Integer token = mTokens[i];
+            if (!scheduler.enqueue(mPackages[packageOf(token)], token, i & 1, mNow)) {
+                throw new IllegalStateException("toast " + i + " rejected");
+            }
+        }
+    }
+
+    private static int packageOf(int token) {
+        return token / (TOASTS / PACKAGES);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[(int) ((long) (sorted.length - 1) * percent / 100)];
+    }
+
+    private static double opsPerSecond(int ops, long nanos) {
+        return ops * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import android.app.INotificationManager;
+import android.app.ITransientNotification;
+import android.os.RemoteException;
+import android.os.SystemClock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Client-side filter in front of {@link INotificationManager#enqueueToast}.
+ *
+ * <p>A toast with the same package, text and duration as one forwarded less than
+ * {@code coalesceWindowMillis} ago is dropped, since the one already queued in the
+ * notification service will show the same thing.  Whatever is left is then limited by
+ * a token bucket holding up to {@code burst} toasts and refilled with one toast every
+ * {@code refillIntervalMillis}.
+ *
+ * <p>Install one with {@link Toast#setThrottler}.  The service is passed in on every
+ * call, so a local fake can stand in for the notification service.
+ *
+ * @hide
+ */
+public class ToastThrottler {
+    /** Number of distinct recent toasts remembered for coalescing. */
+    private static final int MAX_RECENT = 32;
+
+    private final long mCoalesceWindowMillis;
+    private final int mBurst;
+    private final long mRefillIntervalMillis;
+
+    // All of the below are guarded by this.
+    private final LinkedHashMap<String, Long> mRecent =
+            new LinkedHashMap<String, Long>(MAX_RECENT, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_RECENT;
+        }
+    };
+    private int mTokens;
+    private long mLastRefill;
+
+    private long mForwarded;
+    private long mCoalesced;
+    private long mRateLimited;
+
+    /**
+     * @param coalesceWindowMillis How long an identical toast is suppressed after one
+     *        has been forwarded, or 0 to disable coalescing.
+     * @param burst Maximum number of toasts forwarded back to back.
+     * @param refillIntervalMillis Time needed to earn one more toast once the burst has
+     *        been used up, or 0 to disable rate limiting.
+     */
+    public ToastThrottler(long coalesceWindowMillis, int burst, long refillIntervalMillis) {
+        if (coalesceWindowMillis < 0 || burst < 1 || refillIntervalMillis < 0) {
+            throw new IllegalArgumentException("Invalid throttling parameters");
+        }
+        mCoalesceWindowMillis = coalesceWindowMillis;
+        mBurst = burst;
+        mRefillIntervalMillis = refillIntervalMillis;
+        mTokens = burst;
+        mLastRefill = Long.MIN_VALUE;
+    }
+
+    /**
+     * Forward the toast to {@code service} unless it is coalesced or rate limited.
+     *
+     * @param text The toast's text, or null if it has a custom view.  Toasts without
+     *        text are only rate limited.
+     * @return true if {@link INotificationManager#enqueueToast} was called.
+     */
+    public boolean enqueue(INotificationManager service, String pkg, ITransientNotification tn,
+            CharSequence text, int duration) throws RemoteException {
+        if (!shouldForward(pkg, text, duration, SystemClock.uptimeMillis())) {
+            return false;
+        }
+        service.enqueueToast(pkg, tn, duration);
+        return true;
+    }
+
+    synchronized boolean shouldForward(String pkg, CharSequence text, int duration, long now) {
+        String key = null;
+        if (text != null && mCoalesceWindowMillis > 0) {
+            key = pkg + '\u0000' + duration + '\u0000' + text;
+            final Long last = mRecent.get(key);
+            if (last != null && now - last < mCoalesceWindowMillis) {
+                mCoalesced++;
+                return false;
+            }
+        }
+
+        if (mRefillIntervalMillis > 0) {
+            if (mLastRefill == Long.MIN_VALUE) {
+                mLastRefill = now;
+            } else if (mTokens < mBurst) {
+                final long earned = (now - mLastRefill) / mRefillIntervalMillis;
+                if (earned > 0) {
+                    mTokens = (int) Math.min(mBurst, mTokens + earned);
+                    mLastRefill += earned * mRefillIntervalMillis;
+                }
+            } else {
+                mLastRefill = now;
+            }
+            if (mTokens == 0) {
+                mRateLimited++;
+                return false;
+            }
+            mTokens--;
+        }
+
+        if (key != null) {
+            mRecent.put(key, now);
+        }
+        mForwarded++;
+        return true;
+    }
+
+    /**
+     * Return the number of toasts passed on to the notification service.
+     */
+    public synchronized long getForwardedCount() {
+        return mForwarded;
+    }
+
+    /**
+     * Return the number of toasts dropped as duplicates of a recent toast.
+     */
+    public synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    /**
+     * Return the number of toasts dropped because the token bucket was empty.
+     */
+    public synchronized long getRateLimitedCount() {
+        return mRateLimited;
+    }
+
+    /**
+     * Return the total number of toasts dropped, coalesced or rate limited.
+     */
+    public synchronized long getSuppressedCount() {
+        return mCoalesced + mRateLimited;
+    }
+
+    /**
+     * Forget recent toasts, refill the bucket and reset the counters.
+     */
+    public synchronized void reset() {
+        mRecent.clear();
+        mTokens = mBurst;
+        mLastRefill = Long.MIN_VALUE;
+        mForwarded = mCoalesced = mRateLimited = 0;
+    }
+}
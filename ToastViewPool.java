@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import android.content.Context;
+import android.util.SparseArray;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * A small pool of detached {@code transient_notification} views, so that
+ * {@link Toast#makeText} does not have to inflate a new view for every toast.
+ *
+ * <p>Views are handed back by the toast's {@code TN} once its window has been removed.
+ * Pools are kept per theme rather than per {@link Context}: pooled views are inflated with
+ * the application context wrapped in the theme of the Context they are for, so they only
+ * reference the application and can be held strongly without keeping an Activity alive.
+ * At most {@link #MAX_POOL_SIZE} views are kept per theme, which bounds the memory held by
+ * the number of distinct themes toasts are made with.
+ *
+ * <p>Because entries are strong, the pool survives garbage collection and the toast that
+ * released a view going away.  For the usual {@code makeText(activity, ...).show()} one
+ * toast at a time, only the first toast of each theme is a miss in
+ * {@link Toast#getViewPoolMissCount}; every later one is a hit in
+ * {@link Toast#getViewPoolHitCount}, unless more than {@code MAX_POOL_SIZE} toasts of a
+ * theme are alive at once.
+ */
+final class ToastViewPool {
+    /** Maximum number of detached views kept per theme. */
+    static final int MAX_POOL_SIZE = 3;
+
+    // Pools by theme resource; 0 is the application's own theme.
+    private static final SparseArray<ToastViewPool> sPools = new SparseArray<ToastViewPool>();
+
+    // Guarded by sPools.
+    private static long sHits;
+    private static long sMisses;
+
+    /**
+     * A toast view together with its cached message {@link TextView}.
+     */
+    static final class Entry {
+        final ToastViewPool pool;
+        final View view;
+        final TextView message;
+
+        // Guarded by sPools.
+        Object owner;
+        boolean pooled;
+        // Set under sPools by release(); the owner sets its text again after reclaim()
+        // and clears this.  Callers of obtain() always set the text.
+        boolean textCleared;
+
+        Entry(ToastViewPool pool, View view, TextView message, Object owner) {
+            this.pool = pool;
+            this.view = view;
+            this.message = message;
+            this.owner = owner;
+        }
+    }
+
+    private final Context mContext;
+
+    // Guarded by sPools.
+    private final ArrayList<Entry> mEntries = new ArrayList<Entry>(MAX_POOL_SIZE);
+
+    private ToastViewPool(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Return the pool for views themed like the given context.
+     */
+    static ToastViewPool get(Context context) {
+        final Context app = context.getApplicationContext();
+        if (app == null) {
+            // No application to inflate against: nothing can be pooled safely.
+            return new ToastViewPool(context);
+        }
+        final int theme = context != app && context instanceof ContextThemeWrapper
+                ? ((ContextThemeWrapper) context).getThemeResId() : 0;
+        return get(app, theme);
+    }
+
+    /**
+     * Return the pool for views themed with {@code theme}, or with the application's own
+     * theme if it is 0.  {@code app} must be the application context.
+     */
+    static ToastViewPool get(Context app, int theme) {
+        synchronized (sPools) {
+            ToastViewPool pool = sPools.get(theme);
+            if (pool == null) {
+                pool = new ToastViewPool(theme == 0 ? app : new ContextThemeWrapper(app, theme));
+                sPools.put(theme, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Return the context views for this pool must be inflated with.
+     */
+    Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * Take a detached view out of the pool on behalf of {@code owner}, or return null
+     * if the caller has to inflate one.
+     */
+    Entry obtain(Object owner) {
+        synchronized (sPools) {
+            final int size = mEntries.size();
+            if (size == 0) {
+                sMisses++;
+                return null;
+            }
+            final Entry entry = mEntries.remove(size - 1);
+            entry.pooled = false;
+            entry.textCleared = false;
+            entry.owner = owner;
+            sHits++;
+            return entry;
+        }
+    }
+
+    /**
+     * Hand a view back once it has been removed from the window manager.  The entry keeps
+     * its owner, so that the owner can {@link #reclaim} it if nobody else took it meanwhile.
+     */
+    void release(Entry entry) {
+        if (entry.view.getParent() != null) {
+            return;
+        }
+        // The pool lives as long as the process; don't let it keep the last text, whose
+        // spans may reference an Activity.
+        entry.message.setText(null);
+        synchronized (sPools) {
+            entry.textCleared = true;
+            if (entry.pooled || entry.owner == null || mEntries.size() >= MAX_POOL_SIZE) {
+                return;
+            }
+            entry.pooled = true;
+            mEntries.add(entry);
+        }
+    }
+
+    /**
+     * Take a previously released entry back out of the pool.  Returns false if the
+     * entry has been handed to another owner, in which case {@code owner} must not
+     * touch its view any more.
+     */
+    boolean reclaim(Entry entry, Object owner) {
+        synchronized (sPools) {
+            if (entry.owner != owner) {
+                return false;
+            }
+            if (entry.pooled) {
+                mEntries.remove(entry);
+                entry.pooled = false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Like {@link #reclaim}, but the entry will never be pooled again.  Used once the view
+     * has escaped to application code, which may have modified it.
+     */
+    boolean detach(Entry entry, Object owner) {
+        synchronized (sPools) {
+            if (!reclaim(entry, owner)) {
+                return false;
+            }
+            entry.owner = null;
+            return true;
+        }
+    }
+
+    /**
+     * Return the number of views in the pool.
+     */
+    int size() {
+        synchronized (sPools) {
+            return mEntries.size();
+        }
+    }
+
+    static long getHitCount() {
+        synchronized (sPools) {
+            return sHits;
+        }
+    }
+
+    static long getMissCount() {
+        synchronized (sPools) {
+            return sMisses;
+        }
+    }
+}